@@ -0,0 +1,217 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import serp.WebPage;
+import serp.rbtree.RBTree;
+import serp.rbtree.UpdateBatch;
+
+/**
+ * Compares applying bursts of page changes one by one through rbInsert and
+ * rbDelete with applying them as an UpdateBatch. Most operations of a burst
+ * change the features of a small set of hot pages, like ad spend and link count
+ * feeds do, the rest insert new pages and delete existing ones. Prints
+ * operations per second for each burst size.
+ */
+public class BatchUpdateBenchmark
+{
+	private static final int TREE_SIZE = 1_000_000;
+	private static final int HOT_PAGES = 5_000;
+	private static final int MAX_FEATURE = 100;
+	private static final int[] BURST_SIZES = { 1_000, 10_000, 100_000, 1_000_000 };
+	private static final int ROUNDS = 6;
+	private static final int MIN_MEASURED_OPERATIONS = 2_000_000; // small bursts run more rounds
+
+	private static final int INSERT = 0;
+	private static final int DELETE = 1;
+	private static final int UPDATE = 2;
+
+	private static long checksum; // keeps the JIT from dropping the work
+	private static int lastBatchSize; // distinct pages of the last batch
+
+
+	/**
+	 * Pages and tree that a sequence of operations is applied to. Both ways of
+	 * applying get their own copy, created from the same seed.
+	 */
+	private static class Index
+	{
+		private final List<WebPage> pages = new ArrayList<WebPage>();
+		private final RBTree tree = new RBTree();
+
+
+		private Index(long seed)
+		{
+			Random random = new Random(seed);
+			for (int i = 0; i < TREE_SIZE; i++)
+			{
+				this.pages.add(randomPage(random));
+			}
+			this.tree.bulkLoad(this.pages.toArray(new WebPage[0]));
+		}
+	}
+
+
+	public static void main(String[] args)
+	{
+		for (int burst : BURST_SIZES)
+		{
+			Index single = new Index(1);
+			Index batched = new Index(1);
+			Random random = new Random(burst);
+			double singleTime = 0;
+			double batchTime = 0;
+			int distinct = 0;
+			int rounds = Math.max(ROUNDS, MIN_MEASURED_OPERATIONS / burst + 1);
+			for (int round = 0; round < rounds; round++)
+			{
+				int[][] operations = randomOperations(random, burst, single.pages.size());
+				double singleSeconds = applyOneByOne(single, operations);
+				double batchSeconds = applyBatch(batched, operations);
+				if (round > 0) // the first round warms up the JIT
+				{
+					singleTime += singleSeconds;
+					batchTime += batchSeconds;
+				}
+				distinct = lastBatchSize;
+			}
+			if (!sameOrder(single.tree, batched.tree))
+			{
+				throw new IllegalStateException("Trees differ after the updates");
+			}
+			System.out.format("burst %8d (%7d pages): one by one %12.0f ops/s, batch %12.0f ops/s\n", burst,
+					distinct, (double) burst * (rounds - 1) / singleTime, (double) burst * (rounds - 1) / batchTime);
+		}
+		System.out.println("checksum " + checksum);
+	}
+
+
+	/**
+	 * A burst of operations: 90% updates of hot pages, 5% inserts, 5% deletes. An
+	 * operation is its type, the position of its page and 4 features.
+	 */
+	private static int[][] randomOperations(Random random, int count, int pageCount)
+	{
+		int[][] operations = new int[count][];
+		int inserted = 0;
+		for (int i = 0; i < count; i++)
+		{
+			int kind = random.nextInt(20);
+			if (kind == 0)
+			{
+				operations[i] = new int[] { INSERT, pageCount + inserted++, random.nextInt(MAX_FEATURE),
+						random.nextInt(MAX_FEATURE), random.nextInt(MAX_FEATURE), random.nextInt(MAX_FEATURE) };
+			}
+			else if (kind == 1)
+			{
+				operations[i] = new int[] { DELETE, HOT_PAGES + random.nextInt(pageCount - HOT_PAGES) };
+			}
+			else
+			{
+				operations[i] = new int[] { UPDATE, random.nextInt(HOT_PAGES), random.nextInt(MAX_FEATURE),
+						random.nextInt(MAX_FEATURE), random.nextInt(MAX_FEATURE), random.nextInt(MAX_FEATURE) };
+			}
+		}
+		return operations;
+	}
+
+
+	/**
+	 * Apply every operation directly to the tree
+	 * 
+	 * @return seconds taken
+	 */
+	private static double applyOneByOne(Index index, int[][] operations)
+	{
+		long start = System.nanoTime();
+		for (int[] operation : operations)
+		{
+			if (operation[0] == INSERT)
+			{
+				WebPage page = new WebPage("", operation[2], operation[3], operation[4], operation[5], -1);
+				index.pages.add(page);
+				index.tree.rbInsert(page);
+			}
+			else
+			{
+				WebPage page = index.pages.get(operation[1]);
+				if (operation[0] == DELETE)
+				{
+					index.tree.rbDelete(index.tree.treeSearch(page));
+				}
+				else
+				{
+					index.tree.rbDelete(index.tree.treeSearch(page));
+					page.setFeatures(operation[2], operation[3], operation[4], operation[5]);
+					index.tree.rbInsert(page);
+				}
+			}
+		}
+		checksum += index.tree.size();
+		return (System.nanoTime() - start) / 1e9;
+	}
+
+
+	/**
+	 * Collect all operations into a batch and apply it
+	 * 
+	 * @return seconds taken
+	 */
+	private static double applyBatch(Index index, int[][] operations)
+	{
+		long start = System.nanoTime();
+		UpdateBatch batch = new UpdateBatch();
+		for (int[] operation : operations)
+		{
+			if (operation[0] == INSERT)
+			{
+				WebPage page = new WebPage("", operation[2], operation[3], operation[4], operation[5], -1);
+				index.pages.add(page);
+				batch.insert(page);
+			}
+			else if (operation[0] == DELETE)
+			{
+				batch.delete(index.pages.get(operation[1]));
+			}
+			else
+			{
+				batch.update(index.pages.get(operation[1]), operation[2], operation[3], operation[4], operation[5]);
+			}
+		}
+		lastBatchSize = batch.size();
+		batch.applyTo(index.tree);
+		checksum += index.tree.size();
+		return (System.nanoTime() - start) / 1e9;
+	}
+
+
+	/**
+	 * Whether both trees hold pages with the same scores in the same order
+	 */
+	private static boolean sameOrder(RBTree a, RBTree b)
+	{
+		WebPage[] pagesA = a.inOrderTreeWalk();
+		WebPage[] pagesB = b.inOrderTreeWalk();
+		if (pagesA.length != pagesB.length)
+		{
+			return false;
+		}
+		for (int i = 0; i < pagesA.length; i++)
+		{
+			if (pagesA[i].getScore() != pagesB[i].getScore())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	private static WebPage randomPage(Random random)
+	{
+		return new WebPage("", random.nextInt(MAX_FEATURE), random.nextInt(MAX_FEATURE),
+				random.nextInt(MAX_FEATURE), random.nextInt(MAX_FEATURE), -1);
+	}
+}
@@ -0,0 +1,74 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * Runs a variant of a benchmark several times after warming it up and prints
+ * its average latency and the bytes allocated by the calling thread per run
+ */
+class BenchmarkRunner
+{
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 20;
+
+	private static Object result; // keeps the JIT from dropping the runs
+
+
+	/**
+	 * Run the task several times and print its average latency and allocation
+	 * 
+	 * @param name
+	 *            label of the variant
+	 * @param task
+	 *            code to measure
+	 */
+	static void measure(String name, Runnable task)
+	{
+		BenchmarkRunner.measure(name, () -> {
+			task.run();
+			return null;
+		});
+	}
+
+
+	/**
+	 * Run the task several times and print its average latency and allocation
+	 * 
+	 * @param name
+	 *            label of the variant
+	 * @param task
+	 *            code to measure
+	 * @return result of the last run
+	 */
+	static <T> T measure(String name, Supplier<T> task)
+	{
+		for (int i = 0; i < WARMUP_ROUNDS; i++)
+		{
+			result = task.get();
+		}
+		long startBytes = BenchmarkRunner.allocatedBytes();
+		long startTime = System.nanoTime();
+		T last = null;
+		for (int i = 0; i < MEASURED_ROUNDS; i++)
+		{
+			last = task.get();
+		}
+		long elapsed = System.nanoTime() - startTime;
+		long allocated = BenchmarkRunner.allocatedBytes() - startBytes;
+		result = last;
+		System.out.format("%-32s %10.3f ms %14d bytes per run\n", name, elapsed / 1e6 / MEASURED_ROUNDS,
+				allocated / MEASURED_ROUNDS);
+		return last;
+	}
+
+
+	/**
+	 * Bytes allocated so far by the current thread
+	 */
+	private static long allocatedBytes()
+	{
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,176 @@
+package benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import serp.WebPage;
+import serp.rbtree.ConcurrentRankedIndex;
+import serp.rbtree.RBTree;
+import serp.rbtree.TreeNode;
+
+/**
+ * Measures query throughput of ConcurrentRankedIndex against a tree guarded by
+ * synchronized methods. Several reader threads run rank and top 30 lookups while
+ * one writer keeps inserting and deleting pages.
+ */
+public class ConcurrentIndexBenchmark
+{
+	private static final int TREE_SIZE = 1_000_000;
+	private static final int MAX_SCORE = 400;
+	private static final long RUN_MILLIS = 3000;
+
+
+	/**
+	 * Common operations of both indexes
+	 */
+	private interface Index
+	{
+		void insert(WebPage page);
+
+
+		void deleteByScore(int score);
+
+
+		WebPage getDataByRank(int rank);
+
+
+		WebPage[] topK(int k);
+	}
+
+
+	/**
+	 * Baseline: every operation holds the monitor of the tree
+	 */
+	private static class SynchronizedIndex implements Index
+	{
+		private final RBTree tree = new RBTree();
+
+
+		public synchronized void insert(WebPage page)
+		{
+			this.tree.rbInsert(page);
+		}
+
+
+		public synchronized void deleteByScore(int score)
+		{
+			TreeNode node = this.tree.treeSearch(score);
+			this.tree.rbDelete(node);
+		}
+
+
+		public synchronized WebPage getDataByRank(int rank)
+		{
+			return this.tree.getDataByRank(rank);
+		}
+
+
+		public synchronized WebPage[] topK(int k)
+		{
+			return this.tree.topK(k);
+		}
+	}
+
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int maxReaders = Math.max(4, Runtime.getRuntime().availableProcessors());
+		for (int readers = 1; readers <= maxReaders; readers *= 2)
+		{
+			SynchronizedIndex synchronizedIndex = new SynchronizedIndex();
+			ConcurrentRankedIndex rankedIndex = new ConcurrentRankedIndex();
+			Index concurrentIndex = new Index()
+			{
+				public void insert(WebPage page)
+				{
+					rankedIndex.insert(page);
+				}
+
+
+				public void deleteByScore(int score)
+				{
+					rankedIndex.deleteByScore(score);
+				}
+
+
+				public WebPage getDataByRank(int rank)
+				{
+					return rankedIndex.getDataByRank(rank);
+				}
+
+
+				public WebPage[] topK(int k)
+				{
+					return rankedIndex.topK(k);
+				}
+			};
+			System.out.format("%2d readers: synchronized %12.0f queries/s, StampedLock %12.0f queries/s\n", readers,
+					run(synchronizedIndex, readers), run(concurrentIndex, readers));
+		}
+	}
+
+
+	/**
+	 * Fill the index, then run readers and one writer for RUN_MILLIS
+	 * 
+	 * @return queries per second over all readers
+	 */
+	private static double run(Index index, int readers) throws InterruptedException
+	{
+		for (int i = 0; i < TREE_SIZE; i++)
+		{
+			index.insert(randomPage());
+		}
+		LongAdder queries = new LongAdder();
+		long deadline = System.currentTimeMillis() + RUN_MILLIS;
+
+		Thread writer = new Thread(() -> {
+			while (System.currentTimeMillis() < deadline)
+			{
+				index.insert(randomPage());
+				index.deleteByScore(ThreadLocalRandom.current().nextInt(MAX_SCORE));
+			}
+		});
+		Thread[] readerThreads = new Thread[readers];
+		for (int r = 0; r < readers; r++)
+		{
+			readerThreads[r] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				long count = 0;
+				while (System.currentTimeMillis() < deadline)
+				{
+					for (int i = 0; i < 100; i++)
+					{
+						if (i % 10 == 0)
+						{
+							index.topK(30);
+						}
+						else
+						{
+							index.getDataByRank(1 + random.nextInt(TREE_SIZE));
+						}
+					}
+					count += 100;
+				}
+				queries.add(count);
+			});
+		}
+		writer.start();
+		for (Thread thread : readerThreads)
+		{
+			thread.start();
+		}
+		writer.join();
+		for (Thread thread : readerThreads)
+		{
+			thread.join();
+		}
+		return queries.sum() * 1000.0 / RUN_MILLIS;
+	}
+
+
+	private static WebPage randomPage()
+	{
+		return new WebPage("", ThreadLocalRandom.current().nextInt(MAX_SCORE), 0, 0, 0, -1);
+	}
+}
@@ -0,0 +1,153 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import crawler.ConcurrentSpider;
+import crawler.Spider;
+
+/**
+ * Crawls a synthetic site served by an embedded HTTP server with Spider and
+ * ConcurrentSpider. Every page answers after a fixed delay and links to up to
+ * three more pages. Most pages are served under the host 127.0.0.1, every fifth
+ * one under localhost, so the crawl is dominated by one host. The site is
+ * smaller than the page limit of a search, so both crawlers have to find the
+ * same pages with the same word frequencies, which is checked. One
+ * ConcurrentSpider runs the searches of both words, so each search has to start
+ * from scratch. Prints the time of each crawl, the pages found and the most
+ * requests each host saw at the same time.
+ */
+public class CrawlerBenchmark
+{
+	private static final int PAGE_DELAY_MILLIS = 50;
+	private static final int LINKS_PER_PAGE = 3;
+	private static final int SITE_PAGES = 121; // below Spider.MAX_PAGES_TO_SEARCH
+	private static final String WORD = "business"; // on every seventh page
+	private static final String OTHER_WORD = "market"; // on every eleventh page
+
+	private static final Map<String, AtomicInteger> active = new ConcurrentHashMap<String, AtomicInteger>();
+	private static final Map<String, AtomicInteger> peak = new ConcurrentHashMap<String, AtomicInteger>();
+	private static int port;
+
+
+	public static void main(String[] args) throws IOException
+	{
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		ExecutorService handlers = Executors.newCachedThreadPool();
+		server.setExecutor(handlers);
+		server.createContext("/", CrawlerBenchmark::servePage);
+		server.start();
+		port = server.getAddress().getPort();
+		try
+		{
+			ConcurrentSpider concurrent = new ConcurrentSpider();
+			for (String word : new String[] { WORD, OTHER_WORD, WORD })
+			{
+				Spider spider = new Spider();
+				Set<String> expected = crawl("Spider", word, () -> spider.search(pageUrl(0), word));
+				Set<String> found = crawl("ConcurrentSpider", word, () -> concurrent.search(pageUrl(0), word));
+				if (!expected.equals(found))
+				{
+					throw new IllegalStateException("Crawlers found different pages for " + word);
+				}
+				for (String link : found)
+				{
+					if (spider.getWordFrequency(word, link) != concurrent.getWordFrequency(link))
+					{
+						throw new IllegalStateException("Crawlers counted " + word + " differently on " + link);
+					}
+				}
+			}
+		}
+		finally
+		{
+			server.stop(0);
+			handlers.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * Crawl interface of the variants
+	 */
+	private interface Crawl
+	{
+		Set<String> run();
+	}
+
+
+	private static Set<String> crawl(String name, String word, Crawl crawl)
+	{
+		active.clear();
+		peak.clear();
+		long start = System.nanoTime();
+		Set<String> found = crawl.run();
+		long elapsed = System.nanoTime() - start;
+		System.out.format("%-18s %-10s %8.0f ms %4d pages found, most requests at once %s\n", name, word,
+				elapsed / 1e6, found.size(), peak);
+		return found;
+	}
+
+
+	/**
+	 * Answer /page/n after the delay with links to the pages 3n+1 to 3n+3 that
+	 * exist. The words occur 1 to 3 times on the pages that contain them.
+	 */
+	private static void servePage(HttpExchange exchange) throws IOException
+	{
+		String host = exchange.getRequestHeaders().getFirst("Host").replaceFirst(":\\d+$", "");
+		AtomicInteger current = active.computeIfAbsent(host, h -> new AtomicInteger());
+		peak.computeIfAbsent(host, h -> new AtomicInteger()).accumulateAndGet(current.incrementAndGet(), Math::max);
+		try
+		{
+			Thread.sleep(PAGE_DELAY_MILLIS);
+			String path = exchange.getRequestURI().getPath();
+			long n = path.startsWith("/page/") ? Long.parseLong(path.substring(6)) : 0;
+			StringBuilder html = new StringBuilder("<html><body><p>Page ").append(n);
+			for (long i = 0; i <= n % 3; i++)
+			{
+				html.append(n % 7 == 0 ? " " + WORD : "").append(n % 11 == 0 ? " " + OTHER_WORD : "");
+			}
+			html.append("</p>");
+			for (int i = 1; i <= LINKS_PER_PAGE && LINKS_PER_PAGE * n + i < SITE_PAGES; i++)
+			{
+				html.append("<a href=\"").append(pageUrl(LINKS_PER_PAGE * n + i)).append("\">next</a>");
+			}
+			byte[] body = html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody())
+			{
+				out.write(body);
+			}
+		}
+		catch (InterruptedException | NumberFormatException exception)
+		{
+			exchange.sendResponseHeaders(500, -1);
+		}
+		finally
+		{
+			current.decrementAndGet();
+			exchange.close();
+		}
+	}
+
+
+	private static String pageUrl(long n)
+	{
+		String host = n % 5 == 0 ? "localhost" : "127.0.0.1";
+		return "http://" + host + ":" + port + "/page/" + n;
+	}
+}
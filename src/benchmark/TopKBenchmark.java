@@ -0,0 +1,78 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import serp.PageRanker;
+import serp.WebPage;
+import serp.heap.TopKHeap;
+import serp.rbtree.RBTree;
+
+/**
+ * Compares selecting the top 30 of a million candidates with a red black tree
+ * and with a bounded TopKHeap. Prints average latency and bytes allocated by the
+ * calling thread per query for each variant, and checks that all of them return
+ * the same pages.
+ */
+public class TopKBenchmark
+{
+	private static final int CANDIDATES = 1_000_000;
+	private static final int K = 30;
+	private static final int MAX_FEATURE = 100;
+
+	public static void main(String[] args)
+	{
+		Random random = new Random(1);
+		WebPage[] candidates = new WebPage[CANDIDATES];
+		for (int i = 0; i < candidates.length; i++)
+		{
+			candidates[i] = new WebPage("", random.nextInt(MAX_FEATURE), random.nextInt(MAX_FEATURE),
+					random.nextInt(MAX_FEATURE), random.nextInt(MAX_FEATURE), i);
+		}
+
+		WebPage[] expected = BenchmarkRunner.measure("tree, rbInsert every page", () -> {
+			RBTree tree = new RBTree();
+			for (WebPage page : candidates)
+			{
+				tree.rbInsert(page);
+			}
+			return tree.topK(K);
+		});
+		check(expected, BenchmarkRunner.measure("tree, bulkLoad", () -> {
+			RBTree tree = new RBTree();
+			tree.bulkLoad(candidates);
+			return tree.topK(K);
+		}));
+		check(expected, BenchmarkRunner.measure("heap", () -> {
+			TopKHeap<WebPage> heap = new TopKHeap<WebPage>(K, WebPage.SCORE_ORDER);
+			for (WebPage page : candidates)
+			{
+				heap.offer(page);
+			}
+			return heap.toDescendingList().toArray(new WebPage[0]);
+		}));
+		check(expected,
+				BenchmarkRunner.measure("PageRanker.topResults", () -> PageRanker.topResults(candidates, K)));
+
+		// Worst case for the heap: every candidate beats the ones kept so far
+		WebPage[] ascending = candidates.clone();
+		Arrays.sort(ascending, WebPage.SCORE_ORDER);
+		check(expected, BenchmarkRunner.measure("heap, ascending candidates", () -> {
+			TopKHeap<WebPage> heap = new TopKHeap<WebPage>(K, WebPage.SCORE_ORDER);
+			for (WebPage page : ascending)
+			{
+				heap.offer(page);
+			}
+			return heap.toDescendingList().toArray(new WebPage[0]);
+		}));
+	}
+
+
+	private static void check(WebPage[] expected, WebPage[] actual)
+	{
+		if (!Arrays.equals(expected, actual))
+		{
+			throw new IllegalStateException("Variants disagree on the top " + K);
+		}
+	}
+}
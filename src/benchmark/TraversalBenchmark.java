@@ -0,0 +1,93 @@
+package benchmark;
+
+import java.util.ArrayList;
+
+import serp.WebPage;
+import serp.rbtree.RBTree;
+import serp.rbtree.TreeNode;
+
+/**
+ * Compares the recursive in-order walk that buffers into an ArrayList with the
+ * iterative walks of RBTree. Prints average latency and bytes allocated per walk
+ * for each variant.
+ */
+public class TraversalBenchmark
+{
+	private static final int TREE_SIZE = 1_000_000;
+
+	private static long checksum; // keeps the JIT from dropping the walks
+
+
+	public static void main(String[] args)
+	{
+		RBTree tree = new RBTree();
+		for (int i = 0; i < TREE_SIZE; i++)
+		{
+			tree.rbInsert(new WebPage("", (int) (Math.random() * TREE_SIZE), 0, 0, 0, i));
+		}
+
+		BenchmarkRunner.measure("recursive walk into ArrayList", () -> recursiveTreeWalk(tree));
+		BenchmarkRunner.measure("iterative walk into array", () -> {
+			checksum += tree.inOrderTreeWalk().length;
+		});
+		BenchmarkRunner.measure("iterative walk into consumer",
+				() -> tree.inOrderTreeWalk(page -> checksum += page.getScore()));
+		BenchmarkRunner.measure("recursive search x 1000", () -> {
+			for (int i = 0; i < 1000; i++)
+			{
+				checksum += recursiveTreeSearch(tree.root, i * 1000) == RBTree.nullNode ? 0 : 1;
+			}
+		});
+		BenchmarkRunner.measure("iterative search x 1000", () -> {
+			for (int i = 0; i < 1000; i++)
+			{
+				checksum += tree.treeSearch(i * 1000) == null ? 0 : 1;
+			}
+		});
+		System.out.println("checksum " + checksum);
+	}
+
+
+	/**
+	 * The walk RBTree used to do: recurse into an ArrayList, then copy to an array
+	 */
+	private static void recursiveTreeWalk(RBTree tree)
+	{
+		ArrayList<WebPage> pages = new ArrayList<>();
+		WebPage[] sortedPages = new WebPage[tree.size()];
+		recursiveTreeWalk(tree.root, pages);
+		for (int i = 0; i < pages.size(); i++)
+		{
+			sortedPages[i] = pages.get(i);
+		}
+		checksum += sortedPages.length;
+	}
+
+
+	private static void recursiveTreeWalk(TreeNode x, ArrayList<WebPage> pages)
+	{
+		if (x != RBTree.nullNode)
+		{
+			recursiveTreeWalk(x.left, pages);
+			pages.add(x.data);
+			recursiveTreeWalk(x.right, pages);
+		}
+	}
+
+
+	/**
+	 * The search RBTree used to do, one call per level
+	 */
+	private static TreeNode recursiveTreeSearch(TreeNode x, int k)
+	{
+		if (x == RBTree.nullNode || k == x.key)
+		{
+			return x;
+		}
+		if (k < x.key)
+		{
+			return recursiveTreeSearch(x.left, k);
+		}
+		return recursiveTreeSearch(x.right, k);
+	}
+}
@@ -0,0 +1,230 @@
+package crawler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton that finds any number of keywords in a single pass
+ * over a text, ignoring case. The failure links are folded into a complete
+ * transition table, so every character of the text costs two array lookups no
+ * matter how many keywords there are. Occurrences of a keyword are counted
+ * like SpiderLeg.countOccurrences() does: from left to right, skipping the
+ * characters of a counted occurrence, so "aa" is found twice in "aaaa".
+ * Occurrences of different keywords may overlap.
+ */
+public class AhoCorasick
+{
+    private final String[] keywords;
+    private final int[] lengths;
+    private final int alphabetSize; // distinct keyword characters, plus 0 for any other character
+    private final int[] asciiClass = new int[128];
+    private final Map<Character, Integer> otherClass = new HashMap<Character, Integer>();
+    private final int[] transitions; // state * alphabetSize + class -> next state
+    private final int[][] outputs; // keywords ending in a state, including those of its suffixes
+
+
+    /**
+     * @param keywords
+     *            - The words to look for, compared without regard to case
+     */
+    public AhoCorasick(String... keywords)
+    {
+	this.keywords = keywords.clone();
+	this.lengths = new int[keywords.length];
+	for (int k = 0; k < keywords.length; k++)
+	{
+	    this.lengths[k] = keywords[k].length();
+	}
+
+	// Alphabet of the keywords, other characters never advance a match
+	int classes = 1;
+	for (String keyword : keywords)
+	{
+	    for (int i = 0; i < keyword.length(); i++)
+	    {
+		char c = AhoCorasick.fold(keyword.charAt(i));
+		if (this.classOf(c) == 0)
+		{
+		    if (c < 128)
+		    {
+			this.asciiClass[c] = classes++;
+		    } else
+		    {
+			this.otherClass.put(c, classes++);
+		    }
+		}
+	    }
+	}
+	this.alphabetSize = classes;
+
+	// Trie of the keywords, -1 for a missing edge
+	List<int[]> trie = new ArrayList<int[]>();
+	List<List<Integer>> ends = new ArrayList<List<Integer>>();
+	trie.add(AhoCorasick.newState(classes));
+	ends.add(new ArrayList<Integer>());
+	for (int k = 0; k < keywords.length; k++)
+	{
+	    int state = 0;
+	    for (int i = 0; i < keywords[k].length(); i++)
+	    {
+		int c = this.classOf(AhoCorasick.fold(keywords[k].charAt(i)));
+		if (trie.get(state)[c] < 0)
+		{
+		    trie.get(state)[c] = trie.size();
+		    trie.add(AhoCorasick.newState(classes));
+		    ends.add(new ArrayList<Integer>());
+		}
+		state = trie.get(state)[c];
+	    }
+	    if (!keywords[k].isEmpty())
+	    {
+		ends.get(state).add(k);
+	    }
+	}
+
+	// Breadth first over the trie: states closer to the root have their failure
+	// state and transitions ready when a deeper state needs them
+	int states = trie.size();
+	this.transitions = new int[states * classes];
+	this.outputs = new int[states][];
+	int[] failure = new int[states];
+	ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+	this.outputs[0] = new int[0];
+	for (int c = 0; c < classes; c++)
+	{
+	    int child = trie.get(0)[c];
+	    if (child > 0)
+	    {
+		failure[child] = 0;
+		queue.add(child);
+	    }
+	    this.transitions[c] = Math.max(child, 0);
+	}
+	while (!queue.isEmpty())
+	{
+	    int state = queue.poll();
+	    int[] own = ends.get(state).stream().mapToInt(Integer::intValue).toArray();
+	    int[] inherited = this.outputs[failure[state]];
+	    this.outputs[state] = Arrays.copyOf(own, own.length + inherited.length);
+	    System.arraycopy(inherited, 0, this.outputs[state], own.length, inherited.length);
+	    for (int c = 0; c < classes; c++)
+	    {
+		int child = trie.get(state)[c];
+		if (child > 0)
+		{
+		    failure[child] = this.transitions[failure[state] * classes + c];
+		    queue.add(child);
+		    this.transitions[state * classes + c] = child;
+		} else
+		{
+		    this.transitions[state * classes + c] = this.transitions[failure[state] * classes + c];
+		}
+	    }
+	}
+    }
+
+
+    /**
+     * @return the keywords, in the order of the counts
+     */
+    public String[] getKeywords()
+    {
+	return this.keywords.clone();
+    }
+
+
+    /**
+     * Counts the occurrences of every keyword in a region of a text
+     * 
+     * @param text
+     *            - The text to search
+     * @param from
+     *            - First character of the region
+     * @param to
+     *            - End of the region, exclusive
+     * @param counts
+     *            - Counts per keyword, incremented for every occurrence that
+     *            does not overlap the previous one of the same keyword
+     */
+    public void count(CharSequence text, int from, int to, int[] counts)
+    {
+	this.count(text, from, to, counts, new int[this.keywords.length]);
+    }
+
+
+    /**
+     * Counts the occurrences of every keyword in a region of a text without
+     * allocating. The regions of one text can share the scratch array if they
+     * are counted in ascending order, it has to be zeroed for a new text.
+     * 
+     * @param text
+     *            - The text to search
+     * @param from
+     *            - First character of the region
+     * @param to
+     *            - End of the region, exclusive
+     * @param counts
+     *            - Counts per keyword, incremented for every occurrence that
+     *            does not overlap the previous one of the same keyword
+     * @param nextStart
+     *            - Scratch array with one entry per keyword, where the next
+     *            occurrence of the keyword may start
+     */
+    public void count(CharSequence text, int from, int to, int[] counts, int[] nextStart)
+    {
+	int[] transitions = this.transitions;
+	int alphabetSize = this.alphabetSize;
+	int state = 0;
+	for (int i = from; i < to; i++)
+	{
+	    state = transitions[state * alphabetSize + this.classOf(AhoCorasick.fold(text.charAt(i)))];
+	    int[] found = this.outputs[state];
+	    for (int k = 0; k < found.length; k++)
+	    {
+		int keyword = found[k];
+		if (i + 1 - this.lengths[keyword] >= nextStart[keyword])
+		{
+		    counts[keyword]++;
+		    nextStart[keyword] = i + 1;
+		}
+	    }
+	}
+    }
+
+
+    private int classOf(char c)
+    {
+	if (c < 128)
+	{
+	    return this.asciiClass[c];
+	}
+	Integer other = this.otherClass.get(c);
+	return other == null ? 0 : other;
+    }
+
+
+    /**
+     * Case folding that matches String.regionMatches(true, ...) for single
+     * characters
+     */
+    private static char fold(char c)
+    {
+	if (c < 128)
+	{
+	    return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+	}
+	return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+
+    private static int[] newState(int classes)
+    {
+	int[] edges = new int[classes];
+	Arrays.fill(edges, -1);
+	return edges;
+    }
+}
@@ -0,0 +1,340 @@
+package crawler;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Crawls like Spider, but runs many spider legs at the same time. Links found by
+ * the legs go to a shared frontier that drops links seen before, a single
+ * coordinator thread takes them from the frontier and hands them to the fetch
+ * pool. A link is only handed out once its host has a free permit, links of a
+ * busy host wait aside so they do not hold fetch slots that other hosts could
+ * use. The same stopping rules as in Spider apply: at most MAX_PAGES_TO_SEARCH
+ * pages are fetched and the search ends once MAX_RELEVANT_LINKS pages
+ * containing the word were found.
+ */
+public class ConcurrentSpider
+{
+    private static final int DEFAULT_PARALLELISM = 16;
+    private static final int DEFAULT_PER_HOST_LIMIT = 4;
+
+    private final int parallelism;
+    private final int perHostLimit;
+    private PageCache pageCache = null;
+    private volatile Map<String, Integer> wordFrequencies = new HashMap<String, Integer>(); // of the last search
+
+
+    /**
+     * State of one search. Every call of search() starts a new one, so pages
+     * still being fetched for an earlier search cannot change it.
+     */
+    private class Crawl
+    {
+	private final String searchWord;
+	private final Frontier pagesToVisit = new Frontier();
+	private int pagesVisited = 0; // only used by the coordinator
+	private final Deque<String> waitingForHost = new ArrayDeque<String>(); // only used by the coordinator
+	private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+	private final Set<String> relevantLinks = new HashSet<String>(); // guarded by itself
+	private final Map<String, Integer> wordFrequencies = new ConcurrentHashMap<String, Integer>();
+	private final Object progress = new Object();
+	private int inFlight = 0; // guarded by progress
+	private long finished = 0; // guarded by progress
+
+
+	private Crawl(String searchWord)
+	{
+	    this.searchWord = searchWord;
+	}
+
+
+	/**
+	 * Hand links from the frontier to the fetch pool until a stopping rule
+	 * applies
+	 */
+	private void run(String url, ExecutorService pool) throws InterruptedException
+	{
+	    Semaphore slots = new Semaphore(ConcurrentSpider.this.parallelism);
+	    this.pagesToVisit.add(url);
+	    while (this.pagesVisited < Spider.MAX_PAGES_TO_SEARCH && !this.enoughRelevantLinks())
+	    {
+		slots.acquire();
+		long finishedBefore;
+		synchronized (this.progress)
+		{
+		    finishedBefore = this.finished;
+		}
+		String currentUrl = this.nextUrl();
+		if (currentUrl == null)
+		{
+		    slots.release();
+		    if (!this.awaitProgress(finishedBefore))
+		    {
+			break; // Nothing in flight could add more links
+		    }
+		    continue;
+		}
+		Semaphore hostPermit = this.hostPermit(currentUrl); // acquired by nextUrl()
+		this.pagesVisited++;
+		synchronized (this.progress)
+		{
+		    this.inFlight++;
+		}
+		pool.execute(() -> {
+		    try
+		    {
+			this.visit(currentUrl);
+		    }
+		    finally
+		    {
+			hostPermit.release();
+			slots.release();
+			synchronized (this.progress)
+			{
+			    this.inFlight--;
+			    this.finished++;
+			    this.progress.notifyAll();
+			}
+		    }
+		});
+	    }
+	    if (!this.enoughRelevantLinks())
+	    {
+		this.awaitIdle(); // Pages still in flight may be relevant
+	    }
+	}
+
+
+	/**
+	 * Next link whose host has a free permit, with the permit acquired. Links
+	 * that waited for their host go first, links of a busy host taken from the
+	 * frontier are put aside.
+	 * 
+	 * @return a link to fetch, null if every known link waits for a busy host
+	 */
+	private String nextUrl()
+	{
+	    for (Iterator<String> waiting = this.waitingForHost.iterator(); waiting.hasNext();)
+	    {
+		String url = waiting.next();
+		if (this.hostPermit(url).tryAcquire())
+		{
+		    waiting.remove();
+		    return url;
+		}
+	    }
+	    String url;
+	    while ((url = this.pagesToVisit.poll()) != null)
+	    {
+		if (this.hostPermit(url).tryAcquire())
+		{
+		    return url;
+		}
+		this.waitingForHost.add(url);
+	    }
+	    return null;
+	}
+
+
+	private Semaphore hostPermit(String url)
+	{
+	    return this.hostPermits.computeIfAbsent(ConcurrentSpider.hostOf(url),
+		    host -> new Semaphore(ConcurrentSpider.this.perHostLimit));
+	}
+
+
+	/**
+	 * Fetch a page, remember it if it contains the word and queue its links
+	 */
+	private void visit(String url)
+	{
+	    SpiderLeg leg = new SpiderLeg(ConcurrentSpider.this.pageCache);
+	    int frequency = leg.crawlAndCount(url, this.searchWord);
+	    if (frequency > 0)
+	    {
+		synchronized (this.relevantLinks)
+		{
+		    if (this.relevantLinks.size() < Spider.MAX_RELEVANT_LINKS)
+		    {
+			this.relevantLinks.add(url);
+			this.wordFrequencies.put(url, frequency);
+		    }
+		}
+	    }
+	    this.pagesToVisit.addAll(leg.getLinks());
+	}
+
+
+	/**
+	 * Wait until new links arrive or a page in flight is done, which frees a
+	 * host permit
+	 * 
+	 * @param finishedBefore
+	 *            - Number of finished pages when the coordinator last looked
+	 * @return false if no link is left and no page is in flight
+	 */
+	private boolean awaitProgress(long finishedBefore) throws InterruptedException
+	{
+	    synchronized (this.progress)
+	    {
+		while (this.pagesToVisit.isEmpty() && this.inFlight > 0 && this.finished == finishedBefore)
+		{
+		    this.progress.wait();
+		}
+		return !this.pagesToVisit.isEmpty() || this.inFlight > 0 || !this.waitingForHost.isEmpty();
+	    }
+	}
+
+
+	private void awaitIdle() throws InterruptedException
+	{
+	    synchronized (this.progress)
+	    {
+		while (this.inFlight > 0)
+		{
+		    this.progress.wait();
+		}
+	    }
+	}
+
+
+	private boolean enoughRelevantLinks()
+	{
+	    synchronized (this.relevantLinks)
+	    {
+		return this.relevantLinks.size() >= Spider.MAX_RELEVANT_LINKS;
+	    }
+	}
+    }
+
+
+    public ConcurrentSpider()
+    {
+	this(DEFAULT_PARALLELISM, DEFAULT_PER_HOST_LIMIT);
+    }
+
+
+    /**
+     * @param parallelism
+     *            - How many pages are fetched at the same time
+     * @param perHostLimit
+     *            - How many pages of the same host are fetched at the same time
+     */
+    public ConcurrentSpider(int parallelism, int perHostLimit)
+    {
+	if (parallelism < 1 || perHostLimit < 1)
+	{
+	    throw new IllegalArgumentException("Parallelism and per host limit must be positive");
+	}
+	this.parallelism = parallelism;
+	this.perHostLimit = perHostLimit;
+    }
+
+
+    /**
+     * Take pages from a cache and revalidate them instead of downloading them
+     * again
+     * 
+     * @param pageCache
+     *            - The cache, null to always download
+     */
+    public void setPageCache(PageCache pageCache)
+    {
+	this.pageCache = pageCache;
+    }
+
+
+    /**
+     * Crawl from a starting page and collect the pages that contain a word. Every
+     * call starts a new crawl, nothing is carried over from an earlier one.
+     * 
+     * @param url
+     *            - The starting point of the spider
+     * @param searchWord
+     *            - The word or string that you are searching for
+     * @return links of the pages that contain the word
+     */
+    public Set<String> search(String url, String searchWord)
+    {
+	Crawl crawl = new Crawl(searchWord);
+	ExecutorService pool = ConcurrentSpider.newFetchPool(this.parallelism);
+	try
+	{
+	    crawl.run(url, pool);
+	}
+	catch (InterruptedException ie)
+	{
+	    Thread.currentThread().interrupt();
+	}
+	finally
+	{
+	    // Pages still being fetched after enough links were found are not needed
+	    pool.shutdownNow();
+	}
+	synchronized (crawl.relevantLinks)
+	{
+	    this.wordFrequencies = new HashMap<String, Integer>(crawl.wordFrequencies);
+	    return new HashSet<String>(crawl.relevantLinks);
+	}
+    }
+
+
+    /**
+     * How often the search word occurs on a page found by the last search
+     * 
+     * @param link
+     *            - One of the links returned by search()
+     * @return number of occurrences, 0 for an unknown link
+     */
+    public int getWordFrequency(String link)
+    {
+	return this.wordFrequencies.getOrDefault(link, 0);
+    }
+
+
+    private static String hostOf(String url)
+    {
+	try
+	{
+	    String host = URI.create(url).getHost();
+	    return host == null ? "" : host.toLowerCase();
+	}
+	catch (IllegalArgumentException iae)
+	{
+	    return "";
+	}
+    }
+
+
+    /**
+     * Virtual threads make a blocked fetch almost free, so they are used when the
+     * JVM has them. Older JVMs get a fixed pool of platform threads.
+     */
+    private static ExecutorService newFetchPool(int parallelism)
+    {
+	try
+	{
+	    Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+	    return (ExecutorService) factory.invoke(null);
+	}
+	catch (ReflectiveOperationException roe)
+	{
+	    return Executors.newFixedThreadPool(parallelism, runnable -> {
+		Thread thread = new Thread(runnable, "spider-leg");
+		thread.setDaemon(true);
+		return thread;
+	    });
+	}
+    }
+}
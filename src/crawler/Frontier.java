@@ -0,0 +1,260 @@
+package crawler;
+
+import java.util.ArrayDeque;
+
+/**
+ * Queue of links a spider still has to visit. A link is queued only the first
+ * time it is seen, so the queue never holds duplicates. Seen links are kept as
+ * 64-bit fingerprints in an open addressing table instead of as strings. Two
+ * different links share a fingerprint with a probability of about n^2 / 2^65,
+ * negligible for any crawl that fits in memory.
+ * 
+ * For very large crawls a Bloom filter can replace the table. It needs 10 bits
+ * per link instead of 128 but wrongly takes about 1% of the new links as seen,
+ * those links are never visited. All methods are synchronized, a frontier can
+ * be shared by the threads of a crawl.
+ */
+public class Frontier
+{
+    private static final int INITIAL_CAPACITY = 1 << 10; // must be a power of two
+    private static final int BLOOM_HASHES = 4;
+    private static final int BLOOM_BITS_PER_LINK = 10; // about 1% false positives
+
+    private final ArrayDeque<String> queue = new ArrayDeque<String>();
+    private long[] fingerprints; // 0 marks a free slot, null with a Bloom filter
+    private int seen = 0;
+    private long queuedChars = 0;
+    private final long[] bloom;
+    private final long bloomMask;
+
+
+    /**
+     * Frontier with an exact seen set
+     */
+    public Frontier()
+    {
+	this(0);
+    }
+
+
+    /**
+     * @param expectedLinks
+     *            - Number of distinct links the Bloom filter is sized for, 0 for
+     *            an exact seen set
+     */
+    public Frontier(int expectedLinks)
+    {
+	if (expectedLinks > 0)
+	{
+	    long bits = Long.highestOneBit(Math.max(64L, (long) expectedLinks * BLOOM_BITS_PER_LINK - 1) << 1);
+	    this.bloom = new long[(int) (bits >>> 6)];
+	    this.bloomMask = bits - 1;
+	}
+	else
+	{
+	    this.bloom = null;
+	    this.bloomMask = 0;
+	    this.fingerprints = new long[INITIAL_CAPACITY];
+	}
+    }
+
+
+    /**
+     * Queue a link unless it was seen before. The fragment of the link is
+     * dropped, links that differ only in their fragment are the same page.
+     * 
+     * @param url
+     *            - The link to visit
+     * @return whether the link was new and got queued
+     */
+    public synchronized boolean add(String url)
+    {
+	int indexOfSign = url.indexOf('#');
+	if (indexOfSign != -1)
+	{
+	    url = url.substring(0, indexOfSign);
+	}
+	if (!this.markSeen(Frontier.fingerprint(url)))
+	{
+	    return false;
+	}
+	this.queue.add(url);
+	this.queuedChars += url.length();
+	return true;
+    }
+
+
+    /**
+     * Queue all new links of a collection
+     * 
+     * @param urls
+     *            - The links to visit
+     */
+    public synchronized void addAll(Iterable<String> urls)
+    {
+	for (String url : urls)
+	{
+	    this.add(url);
+	}
+    }
+
+
+    /**
+     * Takes the next link in the order they were found
+     * 
+     * @return the next link, null if the frontier is empty
+     */
+    public synchronized String poll()
+    {
+	String url = this.queue.poll();
+	if (url != null)
+	{
+	    this.queuedChars -= url.length();
+	}
+	return url;
+    }
+
+
+    public synchronized boolean isEmpty()
+    {
+	return this.queue.isEmpty();
+    }
+
+
+    /**
+     * @return number of links waiting to be visited
+     */
+    public synchronized int size()
+    {
+	return this.queue.size();
+    }
+
+
+    /**
+     * @return number of distinct links seen so far, queued or taken
+     */
+    public synchronized int seenCount()
+    {
+	return this.seen;
+    }
+
+
+    /**
+     * Approximate number of bytes used by the frontier, counting the queued
+     * links as compact strings
+     * 
+     * @return memory used by the queue and the seen set
+     */
+    public synchronized long memoryUsage()
+    {
+	// A queued link costs a reference, a String header and its array
+	long queueBytes = 4L * this.queue.size() + 40L * this.queue.size() + this.queuedChars;
+	long seenBytes = this.bloom == null ? 8L * this.fingerprints.length : 8L * this.bloom.length;
+	return queueBytes + seenBytes;
+    }
+
+
+    @Override
+    public synchronized String toString()
+    {
+	return String.format("Frontier: %d queued, %d seen, %d KB", this.queue.size(), this.seen,
+		this.memoryUsage() / 1024);
+    }
+
+
+    /**
+     * Adds a fingerprint to the seen set
+     * 
+     * @return whether the fingerprint was not in the set yet
+     */
+    private boolean markSeen(long fingerprint)
+    {
+	if (this.bloom != null)
+	{
+	    if (!this.bloomAdd(fingerprint))
+	    {
+		return false; // All bits were set already, the link was most likely seen
+	    }
+	    this.seen++;
+	    return true;
+	}
+	if (2 * (this.seen + 1) > this.fingerprints.length)
+	{
+	    this.grow();
+	}
+	int mask = this.fingerprints.length - 1;
+	int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+	while (this.fingerprints[slot] != 0)
+	{
+	    if (this.fingerprints[slot] == fingerprint)
+	    {
+		return false;
+	    }
+	    slot = (slot + 1) & mask;
+	}
+	this.fingerprints[slot] = fingerprint;
+	this.seen++;
+	return true;
+    }
+
+
+    private void grow()
+    {
+	long[] old = this.fingerprints;
+	this.fingerprints = new long[old.length * 2];
+	int mask = this.fingerprints.length - 1;
+	for (long fingerprint : old)
+	{
+	    if (fingerprint != 0)
+	    {
+		int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+		while (this.fingerprints[slot] != 0)
+		{
+		    slot = (slot + 1) & mask;
+		}
+		this.fingerprints[slot] = fingerprint;
+	    }
+	}
+    }
+
+
+    /**
+     * Sets the bits of a fingerprint in the Bloom filter
+     * 
+     * @return whether at least one bit was not set before
+     */
+    private boolean bloomAdd(long fingerprint)
+    {
+	boolean changed = false;
+	long h1 = fingerprint;
+	long h2 = (fingerprint >>> 29) | 1;
+	for (int i = 0; i < BLOOM_HASHES; i++)
+	{
+	    long bit = (h1 + i * h2) & this.bloomMask;
+	    int word = (int) (bit >>> 6);
+	    long before = this.bloom[word];
+	    this.bloom[word] = before | (1L << bit);
+	    changed |= this.bloom[word] != before;
+	}
+	return changed;
+    }
+
+
+    /**
+     * 64-bit FNV-1a hash of the characters of a link, finished with a mixing step
+     * so that the low bits used for table slots depend on every character
+     */
+    static long fingerprint(String url)
+    {
+	long hash = 0xcbf29ce484222325L;
+	for (int i = 0; i < url.length(); i++)
+	{
+	    hash ^= url.charAt(i);
+	    hash *= 0x100000001b3L;
+	}
+	hash ^= hash >>> 33;
+	hash *= 0xff51afd7ed558ccdL;
+	hash ^= hash >>> 33;
+	return hash == 0 ? 1 : hash;
+    }
+}
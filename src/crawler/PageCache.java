@@ -0,0 +1,348 @@
+package crawler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk cache of fetched HTML pages keyed by URL. Every page is one file holding
+ * the validators the server sent (ETag and Last-Modified) followed by the body.
+ * The modification time of the file is the time the page was last confirmed by
+ * the server: for freshFor milliseconds after that the page is served without a
+ * request, later it is revalidated with a conditional request that costs a 304
+ * if the page did not change.
+ * 
+ * The cache holds at most maxBytes of bodies, the least recently used pages are
+ * removed first. All methods are synchronized, one cache can be shared by the
+ * threads of a crawl.
+ */
+public class PageCache
+{
+    private static final int MAGIC = 0x50414745; // "PAGE"
+    private static final String SUFFIX = ".page";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long freshFor;
+    private final LinkedHashMap<String, CachedPage> pages = new LinkedHashMap<String, CachedPage>(16, 0.75f, true);
+    private long totalBytes = 0;
+    private long hits = 0;
+    private long revalidations = 0;
+    private long misses = 0;
+
+    /**
+     * Validators and location of a cached page
+     */
+    public static final class CachedPage
+    {
+	final String url;
+	final String finalUrl; // the URL after redirects, base of relative links
+	final String etag;
+	final String lastModified;
+	final long bytes;
+	final Path file;
+	long validatedAt;
+
+
+	CachedPage(String url, String finalUrl, String etag, String lastModified, long bytes, Path file,
+		long validatedAt)
+	{
+	    this.url = url;
+	    this.finalUrl = finalUrl;
+	    this.etag = etag;
+	    this.lastModified = lastModified;
+	    this.bytes = bytes;
+	    this.file = file;
+	    this.validatedAt = validatedAt;
+	}
+    }
+
+
+    /**
+     * Open a cache, picking up the pages stored by earlier runs
+     * 
+     * @param directory
+     *            - Where the pages are stored, created if needed
+     * @param maxBytes
+     *            - Upper bound of the size of the stored pages
+     * @param freshFor
+     *            - Milliseconds a page is served without asking the server
+     * @throws IOException
+     *             if the directory cannot be read
+     */
+    public PageCache(Path directory, long maxBytes, long freshFor) throws IOException
+    {
+	this.directory = directory;
+	this.maxBytes = maxBytes;
+	this.freshFor = freshFor;
+	Files.createDirectories(directory);
+
+	// Oldest first, so that the access order of the map matches the files
+	List<CachedPage> found = new ArrayList<CachedPage>();
+	try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX))
+	{
+	    for (Path file : files)
+	    {
+		CachedPage page = PageCache.readHeader(file);
+		if (page == null)
+		{
+		    Files.deleteIfExists(file);
+		} else
+		{
+		    found.add(page);
+		}
+	    }
+	}
+	found.sort((a, b) -> Long.compare(a.validatedAt, b.validatedAt));
+	for (CachedPage page : found)
+	{
+	    this.pages.put(page.url, page);
+	    this.totalBytes += page.bytes;
+	}
+	this.evict();
+    }
+
+
+    /**
+     * @param url
+     *            - The URL of a page
+     * @return the cached page, null if the page is not in the cache
+     */
+    public synchronized CachedPage lookup(String url)
+    {
+	return this.pages.get(url);
+    }
+
+
+    /**
+     * @return whether the page may be used without asking the server
+     */
+    public boolean isFresh(CachedPage page)
+    {
+	return System.currentTimeMillis() - page.validatedAt < this.freshFor;
+    }
+
+
+    /**
+     * Read the body of a cached page. A page whose file is gone or damaged is
+     * removed from the cache.
+     * 
+     * @return the body, null if it cannot be read
+     */
+    public String body(CachedPage page)
+    {
+	try (DataInputStream in = new DataInputStream(Files.newInputStream(page.file)))
+	{
+	    PageCache.skipHeader(in, page.url);
+	    byte[] body = new byte[(int) page.bytes];
+	    in.readFully(body);
+	    return new String(body, StandardCharsets.UTF_8);
+	} catch (IOException e)
+	{
+	    this.remove(page);
+	    return null;
+	}
+    }
+
+
+    /**
+     * Count a page served from the cache without a request
+     */
+    public synchronized void recordHit()
+    {
+	this.hits++;
+    }
+
+
+    /**
+     * The server confirmed that a cached page did not change (304 Not Modified)
+     */
+    public synchronized void recordRevalidation(CachedPage page)
+    {
+	this.revalidations++;
+	page.validatedAt = System.currentTimeMillis();
+	try
+	{
+	    Files.setLastModifiedTime(page.file, FileTime.fromMillis(page.validatedAt));
+	} catch (IOException e)
+	{
+	    // The page stays usable for this run, it is just revalidated earlier next time
+	}
+    }
+
+
+    /**
+     * Store a downloaded page, replacing an older version of it. Counts as a
+     * miss.
+     * 
+     * @param url
+     *            - The requested URL
+     * @param finalUrl
+     *            - The URL after redirects
+     * @param etag
+     *            - The ETag header, null if there was none
+     * @param lastModified
+     *            - The Last-Modified header, null if there was none
+     * @param body
+     *            - The page
+     */
+    public synchronized void store(String url, String finalUrl, String etag, String lastModified, String body)
+    {
+	this.misses++;
+	byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+	if (bytes.length > this.maxBytes || (etag == null && lastModified == null && this.freshFor <= 0))
+	{
+	    return; // Too big, or could never be used again
+	}
+	Path file = this.directory.resolve(String.format("%016x", Frontier.fingerprint(url)) + SUFFIX);
+	Path temporary = this.directory.resolve(file.getFileName() + ".tmp");
+	try
+	{
+	    try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporary)))
+	    {
+		out.writeInt(MAGIC);
+		out.writeUTF(url);
+		out.writeUTF(finalUrl);
+		out.writeUTF(etag == null ? "" : etag);
+		out.writeUTF(lastModified == null ? "" : lastModified);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	    }
+	    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	} catch (IOException | IllegalArgumentException e)
+	{
+	    // Not cached, the crawl goes on; writeUTF rejects strings over 64 KB
+	    return;
+	}
+	CachedPage old = this.pages.remove(url);
+	if (old != null)
+	{
+	    this.totalBytes -= old.bytes;
+	}
+	CachedPage page = new CachedPage(url, finalUrl, etag, lastModified, bytes.length, file,
+		System.currentTimeMillis());
+	this.pages.put(url, page);
+	this.totalBytes += page.bytes;
+	this.evict();
+    }
+
+
+    public synchronized long getHits()
+    {
+	return this.hits;
+    }
+
+
+    public synchronized long getRevalidations()
+    {
+	return this.revalidations;
+    }
+
+
+    public synchronized long getMisses()
+    {
+	return this.misses;
+    }
+
+
+    /**
+     * @return number of bytes of the cached bodies
+     */
+    public synchronized long size()
+    {
+	return this.totalBytes;
+    }
+
+
+    @Override
+    public synchronized String toString()
+    {
+	return String.format("PageCache: %d pages, %d KB, %d hits, %d revalidated, %d misses", this.pages.size(),
+		this.totalBytes / 1024, this.hits, this.revalidations, this.misses);
+    }
+
+
+    private synchronized void remove(CachedPage page)
+    {
+	if (this.pages.get(page.url) == page)
+	{
+	    this.pages.remove(page.url);
+	    this.totalBytes -= page.bytes;
+	}
+    }
+
+
+    /**
+     * Remove least recently used pages until the cache fits its size
+     */
+    private void evict()
+    {
+	Iterator<Map.Entry<String, CachedPage>> eldest = this.pages.entrySet().iterator();
+	while (this.totalBytes > this.maxBytes && eldest.hasNext())
+	{
+	    CachedPage page = eldest.next().getValue();
+	    eldest.remove();
+	    this.totalBytes -= page.bytes;
+	    try
+	    {
+		Files.deleteIfExists(page.file);
+	    } catch (IOException e)
+	    {
+		// Left behind, picked up again and evicted by the next run
+	    }
+	}
+    }
+
+
+    /**
+     * @return the page described by the header of a file, null if the file is no
+     *         cached page
+     */
+    private static CachedPage readHeader(Path file)
+    {
+	try (DataInputStream in = new DataInputStream(Files.newInputStream(file)))
+	{
+	    if (in.readInt() != MAGIC)
+	    {
+		return null;
+	    }
+	    String url = in.readUTF();
+	    String finalUrl = in.readUTF();
+	    String etag = in.readUTF();
+	    String lastModified = in.readUTF();
+	    int bytes = in.readInt();
+	    return new CachedPage(url, finalUrl, etag.isEmpty() ? null : etag,
+		    lastModified.isEmpty() ? null : lastModified, bytes, file,
+		    Files.getLastModifiedTime(file).toMillis());
+	} catch (IOException e)
+	{
+	    return null;
+	}
+    }
+
+
+    private static void skipHeader(DataInputStream in, String url) throws IOException
+    {
+	// Another URL with the same fingerprint may have replaced the file
+	if (in.readInt() != MAGIC || !in.readUTF().equals(url))
+	{
+	    throw new IOException("Not the cached page of " + url);
+	}
+	for (int i = 0; i < 3; i++)
+	{
+	    in.readUTF();
+	}
+	in.readInt();
+    }
+}
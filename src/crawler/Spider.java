@@ -1,16 +1,46 @@
 package crawler;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class Spider
 {
-    private static final int MAX_PAGES_TO_SEARCH = 150;
-    private Set<String> pagesVisited = new HashSet<String>();
-    private List<String> pagesToVisit = new LinkedList<String>();
+    static final int MAX_PAGES_TO_SEARCH = 150;
+    static final int MAX_RELEVANT_LINKS = 30;
+    private int pagesVisited = 0;
+    private Frontier pagesToVisit = new Frontier();
+    private Map<String, Map<String, Integer>> wordFrequencies = new HashMap<String, Map<String, Integer>>();
+    private final boolean streaming;
+    private PageCache pageCache = null;
+    private Map<String, Map<String, Integer>> pageTerms = null; // null unless terms are collected
+    private Map<String, List<String>> pageLinks = null; // null unless links are collected
+
+
+    /**
+     * Spider that reads pages in a single streaming pass
+     */
+    public Spider()
+    {
+	this(true);
+    }
+
+
+    /**
+     * @param streaming
+     *            - true to read pages in a single pass with
+     *            SpiderLeg.crawlAndCount(), false to build a DOM for every page
+     */
+    public Spider(boolean streaming)
+    {
+	this.streaming = streaming;
+    }
 
 
     /**
@@ -25,68 +55,162 @@ public class Spider
      */
     public Set<String> search(String url, String searchWord)
     {
-	int indexOfSign = url.indexOf('#');
-	if (indexOfSign != -1)
+	return this.search(url, Collections.singletonList(searchWord)).get(searchWord);
+    }
+
+
+    /**
+     * Take pages from a cache and revalidate them instead of downloading them
+     * again
+     * 
+     * @param pageCache
+     *            - The cache, null to always download
+     */
+    public void setPageCache(PageCache pageCache)
+    {
+	this.pageCache = pageCache;
+    }
+
+
+    /**
+     * Count the terms of every page the spider visits, for building an index of
+     * the crawled pages
+     * 
+     * @param collect
+     *            - Whether to count the terms
+     */
+    public void setCollectTerms(boolean collect)
+    {
+	this.pageTerms = collect ? new HashMap<String, Map<String, Integer>>() : null;
+    }
+
+
+    /**
+     * @return the terms of every page visited so far with their occurrences,
+     *         null if terms are not collected
+     */
+    public Map<String, Map<String, Integer>> getPageTerms()
+    {
+	return this.pageTerms;
+    }
+
+
+    /**
+     * Record the links found on every page the spider visits, for building the
+     * link graph of the crawled pages
+     * 
+     * @param collect
+     *            - Whether to record the links
+     */
+    public void setCollectLinks(boolean collect)
+    {
+	this.pageLinks = collect ? new HashMap<String, List<String>>() : null;
+    }
+
+
+    /**
+     * @return the links found on every page visited so far, without fragments,
+     *         null if links are not collected
+     */
+    public Map<String, List<String>> getPageLinks()
+    {
+	return this.pageLinks;
+    }
+
+
+    /**
+     * Searches many words in one crawl. Every fetched page is checked for all
+     * words at once, the crawl ends when every word has MAX_RELEVANT_LINKS pages
+     * or MAX_PAGES_TO_SEARCH pages were visited.
+     * 
+     * @param url
+     *            - The starting point of the spider
+     * @param searchWords
+     *            - The words or strings that you are searching for
+     * @return links of the pages that contain a word, for every word
+     */
+    public Map<String, Set<String>> search(String url, Collection<String> searchWords)
+    {
+	String[] words = new LinkedHashSet<String>(searchWords).toArray(new String[0]);
+	AhoCorasick keywords = new AhoCorasick(words);
+	Map<String, Set<String>> relevantLinks = new HashMap<String, Set<String>>();
+	for (String word : words)
 	{
-	    url = url.substring(0, indexOfSign);
+	    relevantLinks.put(word, new HashSet<String>());
+	    this.wordFrequencies.put(word, new HashMap<String, Integer>());
 	}
-	Set<String> relevantLinks = new HashSet<String>();
-	while (this.pagesVisited.size() < MAX_PAGES_TO_SEARCH)
+	int wordsDone = 0;
+	this.pagesToVisit.add(url); // The frontier drops the fragment
+	while (this.pagesVisited < MAX_PAGES_TO_SEARCH && wordsDone < words.length)
 	{
-	    String currentUrl;
-	    SpiderLeg leg = new SpiderLeg();
-	    if (this.pagesToVisit.isEmpty())
+	    // Links are deduplicated when they are queued, every queued link is new
+	    String currentUrl = this.pagesToVisit.poll();
+	    if (currentUrl == null)
 	    {
-		currentUrl = url;
-		this.pagesVisited.add(url);
+		break; // No more links to follow
+	    }
+	    this.pagesVisited++;
+	    SpiderLeg leg = new SpiderLeg(this.pageCache);
+	    leg.setCollectTerms(this.pageTerms != null);
+
+	    int[] frequencies;
+	    if (this.streaming)
+	    {
+		frequencies = leg.crawlAndCount(currentUrl, keywords);
 	    } else
 	    {
-		currentUrl = this.nextUrl();
+		leg.crawl(currentUrl); // Lots of stuff happening here. Look at the crawl method in
+				       // SpiderLeg
+		frequencies = leg.countWords(keywords);
 	    }
-	    
-	    indexOfSign = currentUrl.indexOf('#');
-	    if (indexOfSign != -1)
+	    if (frequencies != null && this.pageTerms != null)
 	    {
-		currentUrl = currentUrl.substring(0, indexOfSign);
+		this.pageTerms.put(currentUrl, leg.getTermFrequencies());
 	    }
-	    
-	    leg.crawl(currentUrl); // Lots of stuff happening here. Look at the crawl method in
-				   // SpiderLeg
-	    boolean success = leg.searchForWord(searchWord);
-	    if (success)
+	    if (frequencies != null && this.pageLinks != null)
 	    {
-		// System.out.println(String.format("**Success** Word %s found at %s",
-		// searchWord, currentUrl));
-		// break;
-		if (relevantLinks.size() >= 30)
+		List<String> outlinks = new ArrayList<String>(leg.getLinks().size());
+		for (String link : leg.getLinks())
 		{
-		    break;
+		    int indexOfSign = link.indexOf('#');
+		    outlinks.add(indexOfSign == -1 ? link : link.substring(0, indexOfSign));
+		}
+		this.pageLinks.put(currentUrl, outlinks);
+	    }
+	    for (int k = 0; frequencies != null && k < words.length; k++)
+	    {
+		Set<String> links = relevantLinks.get(words[k]);
+		if (frequencies[k] > 0 && links.size() < MAX_RELEVANT_LINKS && links.add(currentUrl))
+		{
+		    // System.out.println(String.format("**Success** Word %s found at %s",
+		    // words[k], currentUrl));
+		    this.wordFrequencies.get(words[k]).put(currentUrl, frequencies[k]);
+		    if (links.size() == MAX_RELEVANT_LINKS)
+		    {
+			wordsDone++;
+		    }
 		}
-		relevantLinks.add(currentUrl);
 	    }
 	    this.pagesToVisit.addAll(leg.getLinks());
 	}
-	// System.out.println("\n**Done** Visited " + this.pagesVisited.size() + " web
+	// System.out.println("\n**Done** Visited " + this.pagesVisited + " web
 	// page(s)");
 	return relevantLinks;
     }
 
 
     /**
-     * Returns the next URL to visit (in the order that they were found). We also do
-     * a check to make sure this method doesn't return a URL that has already been
-     * visited.
+     * How often a search word occurs on a page found by the last search
      * 
-     * @return
+     * @param searchWord
+     *            - One of the words of the search
+     * @param link
+     *            - One of the links returned for the word
+     * @return number of occurrences, 0 for an unknown word or link
      */
-    private String nextUrl()
+    public int getWordFrequency(String searchWord, String link)
     {
-	String nextUrl;
-	do
-	{
-	    nextUrl = this.pagesToVisit.remove(0);
-	} while (this.pagesVisited.contains(nextUrl));
-	this.pagesVisited.add(nextUrl);
-	return nextUrl;
+	Map<String, Integer> frequencies = this.wordFrequencies.get(searchWord);
+	return frequencies == null ? 0 : frequencies.getOrDefault(link, 0);
     }
 }
\ No newline at end of file
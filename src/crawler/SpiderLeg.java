@@ -1,13 +1,18 @@
 package crawler;
 
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
 import org.jsoup.select.Elements;
 
 public class SpiderLeg
@@ -15,8 +20,30 @@ public class SpiderLeg
     // We'll use a fake USER_AGENT so the web server thinks the robot is a normal
     // web browser.
     private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/535.1 (KHTML, like Gecko) Chrome/13.0.782.112 Safari/535.1";
+    private static final int MAX_TERM_LENGTH = 64;
     private List<String> links = new LinkedList<String>();
     private Document htmlDocument;
+    private int wordFrequency = 0;
+    private final PageCache pageCache;
+    private String pageUrl; // URL of the fetched page after redirects
+    private Map<String, Integer> termFrequencies; // null unless terms are collected
+
+
+    public SpiderLeg()
+    {
+	this(null);
+    }
+
+
+    /**
+     * @param pageCache
+     *            - Cache to take pages from and to store fetched pages in, null to
+     *            always download
+     */
+    public SpiderLeg(PageCache pageCache)
+    {
+	this.pageCache = pageCache;
+    }
 
 
     /**
@@ -32,20 +59,14 @@ public class SpiderLeg
     {
 	try
 	{
-	    Connection connection = Jsoup.connect(url).userAgent(USER_AGENT);
-	    Document htmlDocument = connection.get();
-	    this.htmlDocument = htmlDocument;
-	    if (connection.response().statusCode() == 200) // 200 is the HTTP OK status code
-							   // indicating that everything is great.
-	    {
-		//System.out.println("\n**Visiting** Received web page at " + url);
-	    }
-	    System.out.println(connection.response().contentType());
-	    if (connection.response().contentType() ==null || !connection.response().contentType().contains("text/html"))
+	    String body = this.fetch(url);
+	    if (body == null)
 	    {
 		//System.out.println("**Failure** Retrieved something other than HTML");
 		return false;
 	    }
+	    Document htmlDocument = Jsoup.parse(body, this.pageUrl);
+	    this.htmlDocument = htmlDocument;
 	    Elements linksOnPage = htmlDocument.select("a[href]");
 	    //System.out.println("Found (" + linksOnPage.size() + ") links");
 	    for (Element link : linksOnPage)
@@ -83,9 +104,460 @@ public class SpiderLeg
     }
 
 
+    /**
+     * Streaming alternative to crawl() followed by searchForWord(). Walks the
+     * response body once without building a DOM: links are taken from the href
+     * attributes of a tags and the word is counted in the text outside of tags,
+     * script and style elements. Character references in the text are not
+     * decoded and a word split by a tag is not found.
+     * 
+     * @param url
+     *            - The URL to visit
+     * @param searchWord
+     *            - The word or string to count, case is ignored
+     * @return how often the word occurs on the page, -1 if the crawl failed
+     */
+    public int crawlAndCount(String url, String searchWord)
+    {
+	int[] counts = this.crawlAndCount(url, new AhoCorasick(searchWord));
+	this.wordFrequency = counts == null ? 0 : counts[0];
+	return counts == null ? -1 : counts[0];
+    }
+
+
+    /**
+     * Streaming crawl that counts many keywords in the same pass
+     * 
+     * @param url
+     *            - The URL to visit
+     * @param keywords
+     *            - The words to count
+     * @return occurrences per keyword in the order of keywords.getKeywords(), null
+     *         if the crawl failed
+     */
+    public int[] crawlAndCount(String url, AhoCorasick keywords)
+    {
+	try
+	{
+	    String body = this.fetch(url);
+	    if (body == null)
+	    {
+		return null;
+	    }
+	    int[] counts = new int[keywords.getKeywords().length];
+	    this.scan(body, this.pageUrl, keywords, counts);
+	    return counts;
+	} catch (IOException | IllegalArgumentException e)
+	{
+	    // We were not successful in our HTTP request
+	    return null;
+	}
+    }
+
+
+    /**
+     * Counts the occurrences of a word in the body of the HTML document retrieved
+     * by crawl()
+     * 
+     * @param searchWord
+     *            - The word or string to count, case is ignored
+     * @return how often the word occurs in the text of the page
+     */
+    public int countWord(String searchWord)
+    {
+	if (this.htmlDocument == null)
+	{
+	    System.out.println("ERROR! Call crawl() before performing analysis on the document");
+	    return 0;
+	}
+	String bodyText = this.htmlDocument.body().text();
+	this.wordFrequency = SpiderLeg.countOccurrences(bodyText, 0, bodyText.length(), searchWord);
+	return this.wordFrequency;
+    }
+
+
+    /**
+     * Counts many keywords in the body of the HTML document retrieved by crawl()
+     * 
+     * @param keywords
+     *            - The words to count
+     * @return occurrences per keyword in the order of keywords.getKeywords()
+     */
+    public int[] countWords(AhoCorasick keywords)
+    {
+	int[] counts = new int[keywords.getKeywords().length];
+	if (this.htmlDocument == null)
+	{
+	    System.out.println("ERROR! Call crawl() before performing analysis on the document");
+	    return counts;
+	}
+	String bodyText = this.htmlDocument.body().text();
+	keywords.count(bodyText, 0, bodyText.length(), counts);
+	this.countTerms(bodyText, 0, bodyText.length());
+	return counts;
+    }
+
+
+    /**
+     * @return how often the word was found by the last crawlAndCount() or
+     *         countWord()
+     */
+    public int getWordFrequency()
+    {
+	return this.wordFrequency;
+    }
+
+
+    /**
+     * Count every term of the page during crawlAndCount() or countWords(), for
+     * building an index of the crawled pages
+     * 
+     * @param collect
+     *            - Whether to count the terms
+     */
+    public void setCollectTerms(boolean collect)
+    {
+	this.termFrequencies = collect ? new HashMap<String, Integer>() : null;
+    }
+
+
+    /**
+     * @return occurrences of every lower case term of the page, null if terms are
+     *         not collected
+     */
+    public Map<String, Integer> getTermFrequencies()
+    {
+	return this.termFrequencies;
+    }
+
+
     public List<String> getLinks()
     {
 	return this.links;
     }
 
+
+    /**
+     * Download a page, or take it from the page cache. A cached page that is no
+     * longer fresh is revalidated with its ETag and Last-Modified date.
+     * 
+     * @return the HTML of the page, null if the server did not send an HTML page
+     */
+    private String fetch(String url) throws IOException
+    {
+	PageCache.CachedPage cached = this.pageCache == null ? null : this.pageCache.lookup(url);
+	if (cached != null && this.pageCache.isFresh(cached))
+	{
+	    String body = this.pageCache.body(cached);
+	    if (body != null)
+	    {
+		this.pageCache.recordHit();
+		this.pageUrl = cached.finalUrl;
+		return body;
+	    }
+	    cached = null; // The cached copy is gone
+	}
+
+	Connection connection = Jsoup.connect(url).userAgent(USER_AGENT).ignoreHttpErrors(true);
+	if (cached != null && cached.etag != null)
+	{
+	    connection.header("If-None-Match", cached.etag);
+	}
+	if (cached != null && cached.lastModified != null)
+	{
+	    connection.header("If-Modified-Since", cached.lastModified);
+	}
+	Connection.Response response = connection.execute();
+	if (response.statusCode() == 304 && cached != null)
+	{
+	    String body = this.pageCache.body(cached);
+	    if (body == null)
+	    {
+		return this.fetch(url); // The cached copy is gone, download it again
+	    }
+	    this.pageCache.recordRevalidation(cached);
+	    this.pageUrl = cached.finalUrl;
+	    return body;
+	}
+	if (response.statusCode() < 200 || response.statusCode() >= 300)
+	{
+	    return null; // Errors are not HTML pages worth reading
+	}
+	String contentType = response.contentType();
+	if (contentType == null || !contentType.contains("text/html"))
+	{
+	    return null;
+	}
+	String body = response.body();
+	this.pageUrl = response.url().toString();
+	if (this.pageCache != null)
+	{
+	    this.pageCache.store(url, this.pageUrl, response.header("ETag"), response.header("Last-Modified"), body);
+	}
+	return body;
+    }
+
+
+    /**
+     * Single pass over an HTML document that collects links and counts the
+     * keywords
+     */
+    private void scan(String html, String pageUrl, AhoCorasick keywords, int[] counts)
+    {
+	URI base = SpiderLeg.toUri(pageUrl);
+	if (base != null && base.getRawPath() != null && base.getRawPath().isEmpty())
+	{
+	    base = base.resolve("/"); // "http://host" + "a" must give "http://host/a"
+	}
+	int[] nextStart = new int[counts.length]; // shared by all text regions of the page
+	int textStart = 0;
+	int i = 0;
+	while (i < html.length())
+	{
+	    if (html.charAt(i) != '<')
+	    {
+		i++;
+		continue;
+	    }
+	    int tagEnd = this.scanTag(html, i, base);
+	    if (tagEnd == i + 1)
+	    {
+		i++; // A lone '<' is text
+		continue;
+	    }
+	    keywords.count(html, textStart, i, counts, nextStart);
+	    this.countTerms(html, textStart, i);
+	    textStart = tagEnd;
+	    i = tagEnd;
+	}
+	keywords.count(html, textStart, html.length(), counts, nextStart);
+	this.countTerms(html, textStart, html.length());
+    }
+
+
+    /**
+     * Splits a region of text into lower case terms of letters and digits and
+     * counts them. Character references are skipped.
+     */
+    private void countTerms(String text, int from, int to)
+    {
+	if (this.termFrequencies == null)
+	{
+	    return;
+	}
+	StringBuilder term = new StringBuilder();
+	for (int i = from; i <= to; i++)
+	{
+	    char c = i < to ? text.charAt(i) : ' ';
+	    if (Character.isLetterOrDigit(c))
+	    {
+		if (term.length() < MAX_TERM_LENGTH)
+		{
+		    term.append(Character.toLowerCase(c));
+		}
+		continue;
+	    }
+	    if (term.length() > 0)
+	    {
+		this.termFrequencies.merge(term.toString(), 1, Integer::sum);
+		term.setLength(0);
+	    }
+	    if (c == '&')
+	    {
+		int end = text.indexOf(';', i);
+		if (end > 0 && end < to && end - i <= 10)
+		{
+		    i = end;
+		}
+	    }
+	}
+    }
+
+
+    /**
+     * Reads a tag, comment or declaration starting at '<' and records the href of
+     * an a tag. The content of script and style elements is skipped with the tag.
+     * 
+     * @return position after the tag, start + 1 if there is no tag at start
+     */
+    private int scanTag(String html, int start, URI base)
+    {
+	int n = html.length();
+	if (html.startsWith("<!--", start))
+	{
+	    int end = html.indexOf("-->", start + 4);
+	    return end < 0 ? n : end + 3;
+	}
+	int j = start + 1;
+	if (j < n && (html.charAt(j) == '!' || html.charAt(j) == '?'))
+	{
+	    int end = html.indexOf('>', j);
+	    return end < 0 ? n : end + 1;
+	}
+	boolean closing = j < n && html.charAt(j) == '/';
+	if (closing)
+	{
+	    j++;
+	}
+	int nameStart = j;
+	while (j < n && Character.isLetterOrDigit(html.charAt(j)))
+	{
+	    j++;
+	}
+	int nameLength = j - nameStart;
+	if (nameLength == 0 || !Character.isLetter(html.charAt(nameStart)))
+	{
+	    return start + 1;
+	}
+	boolean anchor = !closing && nameLength == 1 && (html.charAt(nameStart) | 0x20) == 'a';
+
+	// Attributes
+	while (j < n)
+	{
+	    char c = html.charAt(j);
+	    if (c == '>')
+	    {
+		j++;
+		break;
+	    }
+	    if (Character.isWhitespace(c) || c == '/')
+	    {
+		j++;
+		continue;
+	    }
+	    int attributeStart = j;
+	    while (j < n && "=>/ \t\n\r\f".indexOf(html.charAt(j)) < 0)
+	    {
+		j++;
+	    }
+	    int attributeLength = j - attributeStart;
+	    while (j < n && Character.isWhitespace(html.charAt(j)))
+	    {
+		j++;
+	    }
+	    if (j >= n || html.charAt(j) != '=')
+	    {
+		continue; // Attribute without a value
+	    }
+	    j++;
+	    while (j < n && Character.isWhitespace(html.charAt(j)))
+	    {
+		j++;
+	    }
+	    int valueStart;
+	    int valueEnd;
+	    if (j < n && (html.charAt(j) == '"' || html.charAt(j) == '\''))
+	    {
+		valueStart = j + 1;
+		valueEnd = html.indexOf(html.charAt(j), valueStart);
+		if (valueEnd < 0)
+		{
+		    return n;
+		}
+		j = valueEnd + 1;
+	    }
+	    else
+	    {
+		valueStart = j;
+		while (j < n && html.charAt(j) != '>' && !Character.isWhitespace(html.charAt(j)))
+		{
+		    j++;
+		}
+		valueEnd = j;
+	    }
+	    if (anchor && attributeLength == 4 && html.regionMatches(true, attributeStart, "href", 0, 4))
+	    {
+		this.addLink(html.substring(valueStart, valueEnd), base);
+	    }
+	}
+
+	// Raw text elements end only at their closing tag
+	if (!closing && (SpiderLeg.isTag(html, nameStart, nameLength, "script")
+		|| SpiderLeg.isTag(html, nameStart, nameLength, "style")))
+	{
+	    int k = j;
+	    while ((k = html.indexOf("</", k)) >= 0)
+	    {
+		if (html.regionMatches(true, k + 2, html, nameStart, nameLength))
+		{
+		    return k;
+		}
+		k += 2;
+	    }
+	    return n;
+	}
+	return j;
+    }
+
+
+    private void addLink(String href, URI base)
+    {
+	if (href.indexOf('&') >= 0)
+	{
+	    href = Parser.unescapeEntities(href, true);
+	}
+	href = href.trim();
+	if (href.isEmpty() || base == null)
+	{
+	    return;
+	}
+	URI uri = SpiderLeg.toUri(href.replace(" ", "%20"));
+	if (uri == null)
+	{
+	    return;
+	}
+	uri = base.resolve(uri);
+	String scheme = uri.getScheme();
+	if ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))
+	{
+	    this.links.add(uri.toString());
+	}
+    }
+
+
+    private static URI toUri(String url)
+    {
+	try
+	{
+	    return new URI(url);
+	} catch (URISyntaxException e)
+	{
+	    return null;
+	}
+    }
+
+
+    private static boolean isTag(String html, int nameStart, int nameLength, String tag)
+    {
+	return nameLength == tag.length() && html.regionMatches(true, nameStart, tag, 0, nameLength);
+    }
+
+
+    /**
+     * Counts the occurrences of a word in a region of a string, ignoring case.
+     * Compares in place instead of lowercasing a copy of the text.
+     */
+    static int countOccurrences(String text, int from, int to, String word)
+    {
+	int length = word.length();
+	if (length == 0)
+	{
+	    return 0;
+	}
+	char lower = Character.toLowerCase(word.charAt(0));
+	char upper = Character.toUpperCase(word.charAt(0));
+	int count = 0;
+	int last = to - length;
+	for (int i = from; i <= last; i++)
+	{
+	    char c = text.charAt(i);
+	    if ((c == lower || c == upper) && text.regionMatches(true, i, word, 0, length))
+	    {
+		count++;
+		i += length - 1;
+	    }
+	}
+	return count;
+    }
+
 }
\ No newline at end of file
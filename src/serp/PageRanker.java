@@ -1,11 +1,24 @@
 package serp;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
+import crawler.PageCache;
 import crawler.Spider;
+import serp.graph.LinkGraph;
+import serp.graph.PageRank;
+import serp.heap.TopKHeap;
+import serp.index.InvertedIndex;
 import serp.rbtree.Color;
 import serp.rbtree.RBTree;
 import serp.rbtree.TreeNode;
+import serp.store.WriteAheadLog;
 import view.DynamicPageRankerView;
 
 /**
@@ -17,11 +30,32 @@ import view.DynamicPageRankerView;
  */
 public class PageRanker
 {
+	public static final int RESULTS_PER_PAGE = 30; // number of rows shown on a search results page
+
+	// Pages of keywords crawled together, waiting to be shown
+	private static final Map<String, WebPage[]> crawledLinks = new HashMap<>();
+
+	// Crawled pages kept between searches and runs, revalidated after 10 minutes
+	private static final long PAGE_CACHE_BYTES = 64L << 20;
+	private static final long PAGE_CACHE_FRESH_FOR = 10 * 60 * 1000;
+	private static PageCache pageCache;
+
+	// Every page crawled so far, keyword queries it can answer need no crawl
+	private static final InvertedIndex index = new InvertedIndex();
+
+	// PageRank of crawled pages on a scale of 0 to 100, used as their number of links
+	private static final Map<String, Integer> linkAuthority = new HashMap<>();
+
+	// -Dserp.ranking=heap selects the top results of a query with a bounded heap
+	// instead of a tree of all candidates
+	private static final boolean RANK_WITH_HEAP = "heap".equals(System.getProperty("serp.ranking"));
 
 	/**
 	 * Entry point for PageRanker application
 	 * 
 	 * @param args
+	 *            optional directory of the index snapshot and log. If given, the
+	 *            index is restored from it and changes are logged to it.
 	 * @throws Exception 
 	 */
 	public static void main(String[] args) throws Exception
@@ -46,20 +80,41 @@ public class PageRanker
 
 		// Create BST
 		RBTree redBlackTree = new RBTree();
-		for (WebPage page : webPages)
+		WriteAheadLog log = null;
+		if (args.length > 0)
 		{
-			if(page.getScore() == 4) {
-				System.out.println("Start debugging");
+			// Restore the index from the last snapshot and the changes logged after it
+			log = new WriteAheadLog(Paths.get(args[0]));
+			int replayed = log.recover(redBlackTree);
+			System.out.println("Restored " + redBlackTree.size() + " pages, " + replayed + " logged changes");
+			if (log.droppedBytes() > 0)
+			{
+				System.out.println("Dropped " + log.droppedBytes() + " bytes of a torn log record");
+			}
+		}
+		if (redBlackTree.size() == 0)
+		{
+			redBlackTree.bulkLoad(webPages);
+			if (log != null)
+			{
+				log.checkpoint(redBlackTree);
 			}
-			
-			RBTree.rbInsert(redBlackTree, page);
-			System.out.println("===== Tree");
-			printTree(redBlackTree.root, "");
 		}
+		System.out.println("===== Tree");
+		printTree(redBlackTree.root, "");
 
-		// Sort using in-order traverse
-		WebPage[] sortedPages = redBlackTree.inOrderTreeWalk();
-		sortedPages = PageRanker.reverse(sortedPages);
+		// Take the top results walking down from the maximum, or select them from
+		// the candidates directly. The view edits the tree, so it is built either way.
+		WebPage[] sortedPages;
+		if (RANK_WITH_HEAP)
+		{
+			WebPage[] candidates = log == null ? webPages : redBlackTree.inOrderTreeWalk();
+			sortedPages = PageRanker.topResults(candidates, RESULTS_PER_PAGE);
+		}
+		else
+		{
+			sortedPages = redBlackTree.topK(RESULTS_PER_PAGE);
+		}
 
 		// Print sorted elements
 		System.out.println("\nSored using BST");
@@ -75,9 +130,36 @@ public class PageRanker
 		validateTree(redBlackTree);
 		checkDepth(redBlackTree.root, 1, 1);
 		
-		DynamicPageRankerView view = new DynamicPageRankerView(sortedPages, searchWord, redBlackTree);
+		DynamicPageRankerView view = new DynamicPageRankerView(sortedPages, searchWord, redBlackTree, log);
 	}
 
+	/**
+	 * Select the best pages of a query with a bounded heap. Only the k best pages
+	 * seen so far are kept, so this costs O(n log k) at worst and close to O(n)
+	 * for candidates in random order.
+	 * 
+	 * @param candidates
+	 *            pages matching the query in any order
+	 * @param k
+	 *            number of pages to return
+	 * @return at most k pages, the page with the biggest score first, ties in the
+	 *         same order as the tree
+	 */
+	public static WebPage[] topResults(WebPage[] candidates, int k)
+	{
+		if (k <= 0)
+		{
+			return new WebPage[0];
+		}
+		TopKHeap<WebPage> heap = new TopKHeap<WebPage>(k, WebPage.SCORE_ORDER);
+		for (WebPage page : candidates)
+		{
+			heap.offer(page);
+		}
+		return heap.toDescendingList().toArray(new WebPage[0]);
+	}
+
+
 	public static void validateTree(RBTree tree) {
 		WebPage[] sortedPages = tree.inOrderTreeWalk();
 		for(int i = 1; i < sortedPages.length; i++) {
@@ -111,29 +193,148 @@ public class PageRanker
 	}
 
 	/**
-	 * Call web crawler and generate 30 links for a particular keyword
+	 * Call web crawler and generate 30 links for a particular keyword. Keywords
+	 * fetched together by an earlier call of getLinks(Collection) are not crawled
+	 * again, keywords found on at least 30 pages crawled before are looked up in
+	 * the index. Rarer keywords are crawled, the index alone would return too few
+	 * pages for them.
 	 * 
 	 * @param searchWord
 	 *            keyword to search in web pages
-	 * @return list of 30 links with generated scores
+	 * @return list of 30 links scored by the frequency of the keyword and
+	 *         generated values for the other features
 	 */
 	public static WebPage[] getLinks(String searchWord)
+	{
+		WebPage[] webPages = crawledLinks.remove(searchWord);
+		if (webPages != null)
+		{
+			return webPages;
+		}
+		if (index.documentFrequency(searchWord) >= RESULTS_PER_PAGE)
+		{
+			return getIndexedLinks(searchWord);
+		}
+		webPages = getLinks(Collections.singletonList(searchWord)).get(searchWord);
+		crawledLinks.remove(searchWord);
+		return webPages;
+	}
+
+
+	/**
+	 * Call web crawler once for many keywords and generate up to 30 links for
+	 * each of them. The results of all keywords are kept for getLinks(String).
+	 * 
+	 * @param searchWords
+	 *            keywords to search in web pages
+	 * @return list of up to 30 links for every keyword
+	 */
+	public static Map<String, WebPage[]> getLinks(Collection<String> searchWords)
 	{
 		// Call crawler
 		Spider spider = new Spider();
+		spider.setPageCache(getPageCache());
+		spider.setCollectTerms(true);
+		spider.setCollectLinks(true);
 		String url = "https://www.zyxware.com/articles/4344/list-of-fortune-500-companies-and-their-websites";
 
-		ArrayList<String> links = new ArrayList<>(spider.search(url, searchWord));
+		Map<String, Set<String>> relevantLinks = spider.search(url, searchWords);
+		for (Map.Entry<String, Map<String, Integer>> page : spider.getPageTerms().entrySet())
+		{
+			index.addPage(page.getKey(), page.getValue());
+		}
+		LinkGraph graph = LinkGraph.fromOutlinks(spider.getPageLinks());
+		int[] authority = PageRank.scale(PageRank.compute(graph), 100);
+		for (int node = 0; node < graph.nodeCount(); node++)
+		{
+			linkAuthority.put(graph.getLink(node), authority[node]);
+		}
+		Map<String, WebPage[]> results = new HashMap<>();
+		for (Map.Entry<String, Set<String>> entry : relevantLinks.entrySet())
+		{
+			String[] links = entry.getValue().toArray(new String[0]);
+			int[] wordFrequencies = new int[links.length];
+			for (int i = 0; i < links.length; i++)
+			{
+				wordFrequencies[i] = spider.getWordFrequency(entry.getKey(), links[i]);
+			}
+			WebPage[] webPages = createWebPages(links, wordFrequencies);
+			results.put(entry.getKey(), webPages);
+			crawledLinks.put(entry.getKey(), webPages);
+		}
+		return results;
+	}
+
+
+	/**
+	 * Answer a keyword query from the index of the pages crawled so far
+	 * 
+	 * @param searchWord
+	 *            keyword to look up
+	 * @return the 30 indexed pages containing the keyword most often, like a crawl
+	 *         returns at most 30 pages
+	 */
+	private static WebPage[] getIndexedLinks(String searchWord)
+	{
+		// Term frequency in the high half, so sorting orders by it, and the page in
+		// the low half, inverted so that earlier pages win ties
+		long[] postings = new long[index.documentFrequency(searchWord)];
+		int[] next = { 0 };
+		index.forEachPosting(searchWord, (page, termFrequency) -> {
+			if (next[0] < postings.length) // pages indexed since the count are left out
+			{
+				postings[next[0]++] = (long) termFrequency << 32 | (Integer.MAX_VALUE - page);
+			}
+		});
+		Arrays.sort(postings);
+		int count = Math.min(RESULTS_PER_PAGE, postings.length);
+		String[] links = new String[count];
+		int[] wordFrequencies = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			long posting = postings[postings.length - 1 - i];
+			links[i] = index.getLink(Integer.MAX_VALUE - (int) posting);
+			wordFrequencies[i] = (int) (posting >>> 32);
+		}
+		return createWebPages(links, wordFrequencies);
+	}
+
+
+	/**
+	 * Open the page cache in the temporary directory the first time it is needed.
+	 * Its toString() reports hits, misses and the bytes it holds.
+	 * 
+	 * @return the page cache, null if it cannot be opened
+	 */
+	public static PageCache getPageCache()
+	{
+		if (pageCache == null)
+		{
+			try
+			{
+				pageCache = new PageCache(Paths.get(System.getProperty("java.io.tmpdir"), "serp-page-cache"),
+						PAGE_CACHE_BYTES, PAGE_CACHE_FRESH_FOR);
+			}
+			catch (IOException exception)
+			{
+				System.out.println(exception.getMessage());
+			}
+		}
+		return pageCache;
+	}
 
+
+	private static WebPage[] createWebPages(String[] links, int[] wordFrequencies)
+	{
 		// Create list of web pages
-		WebPage[] webPages = new WebPage[links.size()];
-		for (int i = 0; i < links.size(); i++)
+		WebPage[] webPages = new WebPage[links.length];
+		for (int i = 0; i < links.length; i++)
 		{
-			int wordFrequency = generateRandom(100);
+			String link = links[i];
+			int wordFrequency = wordFrequencies[i];
 			int daysExisted = generateRandom(100);
-			int numberOfLinks = generateRandom(100);
 			int moneyPayed = generateRandom(100);
-			String link = links.get(i);
+			int numberOfLinks = linkAuthority.getOrDefault(link, 0); // looked up before the link is cut
 			if (link.length() > 40)
 			{
 				link = link.substring(0, 40);
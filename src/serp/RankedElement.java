@@ -8,6 +8,6 @@ package serp;
 public interface RankedElement
 {
     int getScore();
-    void setIndex(int index);
-    int getIndex();
+    void setHeapPosition(int position); // -1 when the element is in no heap
+    int getHeapPosition();
 }
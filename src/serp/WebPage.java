@@ -1,6 +1,11 @@
 package serp;
 
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import serp.rbtree.Color;
+import serp.rbtree.TreeNode;
+import serp.scoring.ScoringFunction;
 
 /**
  * Class to represent web page. Field score is overall score to rank web page in
@@ -12,16 +17,25 @@ import serp.rbtree.Color;
  */
 public class WebPage implements RankedElement
 {
+	// Order used by ranked indexes: by score, ties broken by id
+	public static final Comparator<WebPage> SCORE_ORDER = Comparator.comparingInt(WebPage::getScore)
+			.thenComparingInt(WebPage::getId);
+	private static final AtomicInteger nextId = new AtomicInteger();
+	private static volatile ScoringFunction scoringFunction = ScoringFunction.SUM;
+
+	private final int id; // unique id of the page, breaks ties between equal scores
 	private String link;
 	private int wordFrequency;
 	private int daysExisted;
 	private int numberOfLinks;
 	private int adMoney;
 	public Color color;
+	public TreeNode node; // node of the page in the tree it was last inserted into
 
 	private int score; // final score of the web page that depending from 4 other features.
 
-	private int index; // position in heap
+	private int index; // position in list, shown to the user
+	private int heapPosition = -1; // position in the TopKHeap holding the page, -1 if none
 
 
 	/**
@@ -46,6 +60,43 @@ public class WebPage implements RankedElement
 	 */
 	public WebPage(String link, int wordFrequency, int daysExisted, int numberOfLinks, int moneyPayed, int index)
 	{
+		this.id = WebPage.nextId.getAndIncrement();
+		this.link = link;
+		this.wordFrequency = wordFrequency;
+		this.daysExisted = daysExisted;
+		this.numberOfLinks = numberOfLinks;
+		this.adMoney = moneyPayed;
+		this.index = index;
+		updateScore();
+	}
+
+
+	/**
+	 * Restore a web page that was stored with a previously assigned id, for
+	 * example by a persistent index. Ids assigned afterwards stay unique.
+	 * 
+	 * @param id
+	 *            id the page had when it was stored.
+	 * @param link
+	 *            web page address.
+	 * @param wordFrequency
+	 *            score for the frequency and location of keywords within the Web
+	 *            page.
+	 * @param daysExisted
+	 *            score for how long the Web page has existed.
+	 * @param numberOfLinks
+	 *            the number of other Web pages that link to the page in question.
+	 * @param moneyPayed
+	 *            how much the webpage owner has paid to Google for advertisement
+	 *            purpose.
+	 * @param index
+	 *            current position in list.
+	 */
+	public WebPage(int id, String link, int wordFrequency, int daysExisted, int numberOfLinks, int moneyPayed,
+			int index)
+	{
+		WebPage.nextId.accumulateAndGet(id + 1, Math::max);
+		this.id = id;
 		this.link = link;
 		this.wordFrequency = wordFrequency;
 		this.daysExisted = daysExisted;
@@ -62,7 +113,46 @@ public class WebPage implements RankedElement
 	 */
 	private void updateScore()
 	{
-		this.score = this.wordFrequency + this.daysExisted + this.numberOfLinks + adMoney;
+		this.score = WebPage.scoringFunction.score(this.wordFrequency, this.daysExisted, this.numberOfLinks,
+				this.adMoney);
+	}
+
+
+	/**
+	 * Change how the score of web pages is calculated. Only pages created or
+	 * updated afterwards use the new function, existing pages keep their score
+	 * until they are rescored with BatchScorer.rescore().
+	 * 
+	 * @param function
+	 *            new scoring function
+	 */
+	public static void setScoringFunction(ScoringFunction function)
+	{
+		WebPage.scoringFunction = function;
+	}
+
+
+	/**
+	 * Accessor for the scoring function.
+	 * 
+	 * @return function that calculates the score of new pages
+	 */
+	public static ScoringFunction getScoringFunction()
+	{
+		return WebPage.scoringFunction;
+	}
+
+
+	/**
+	 * Overwrite the score, used by batch rescoring. The page must not be in a
+	 * tree while its score changes.
+	 * 
+	 * @param score
+	 *            new score
+	 */
+	public void setScore(int score)
+	{
+		this.score = score;
 	}
 
 
@@ -77,6 +167,17 @@ public class WebPage implements RankedElement
 	}
 
 
+	/**
+	 * Accessor for id field.
+	 * 
+	 * @return unique id of the page, pages created later have bigger ids.
+	 */
+	public int getId()
+	{
+		return this.id;
+	}
+
+
 	/**
 	 * Accessor for link field.
 	 * 
@@ -89,7 +190,7 @@ public class WebPage implements RankedElement
 
 
 	/**
-	 * Update position of web page in the heap.
+	 * Update position of web page in the list.
 	 * 
 	 * @param index
 	 *            new position in array.
@@ -103,7 +204,7 @@ public class WebPage implements RankedElement
 	/**
 	 * Accessor for index field.
 	 * 
-	 * @return the current position in the heap.
+	 * @return the current position in the list.
 	 */
 	public int getIndex()
 	{
@@ -111,6 +212,53 @@ public class WebPage implements RankedElement
 	}
 
 
+	/**
+	 * Update position of web page in the heap that holds it.
+	 * 
+	 * @param position
+	 *            new position in the heap array, -1 if the page left the heap.
+	 */
+	public void setHeapPosition(int position)
+	{
+		this.heapPosition = position;
+	}
+
+
+	/**
+	 * Accessor for heapPosition field.
+	 * 
+	 * @return the current position in the heap, -1 if the page is in no heap.
+	 */
+	public int getHeapPosition()
+	{
+		return this.heapPosition;
+	}
+
+
+	/**
+	 * Replace all 4 features and recalculate final score. Unlike the setters below
+	 * the values may also decrease. A page that is in a tree must be changed with
+	 * RBTree.updateScore() instead, which moves it to its new position.
+	 * 
+	 * @param wordFrequency
+	 *            new frequency of keyword.
+	 * @param daysExisted
+	 *            new number of days the page exists.
+	 * @param numberOfLinks
+	 *            new number of pages that refer to the page.
+	 * @param adMoney
+	 *            new amount of money payed to promote the page.
+	 */
+	public void setFeatures(int wordFrequency, int daysExisted, int numberOfLinks, int adMoney)
+	{
+		this.wordFrequency = wordFrequency;
+		this.daysExisted = daysExisted;
+		this.numberOfLinks = numberOfLinks;
+		this.adMoney = adMoney;
+		updateScore();
+	}
+
+
 	/**
 	 * Update new frequency of keyword if it is greater than previous value and
 	 * recalculate final score.
@@ -236,7 +384,9 @@ public class WebPage implements RankedElement
 		{
 			webPages[i][0] = "" + (i + 1);
 			webPages[i][1] = "" + urls[i].getIndex();
-			String color = urls[i].color == Color.BLACK ? "Black" : "Red";
+			// Read from the node, tree walks do not write to shared pages
+			Color nodeColor = urls[i].node != null ? urls[i].node.color : urls[i].color;
+			String color = nodeColor == Color.BLACK ? "Black" : "Red";
 			webPages[i][2] = "" + color;
 			webPages[i][3] = "" + urls[i].getScore();
 			webPages[i][4] = urls[i].getLink();
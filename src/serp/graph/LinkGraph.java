@@ -0,0 +1,163 @@
+package serp.graph;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Directed graph of links between web pages in compressed sparse row form. For
+ * every page the graph stores the pages linking to it in one shared int array,
+ * which is what a pull based PageRank reads, plus the number of outgoing links
+ * of every page. Millions of edges take a few bytes each.
+ */
+public class LinkGraph
+{
+	private final String[] links; // link of every node, null for graphs built from ids
+	final int[] inOffsets; // in-links of node v are inSources[inOffsets[v] .. inOffsets[v + 1])
+	final int[] inSources;
+	final int[] outDegree;
+
+
+	/**
+	 * Build a graph from a list of edges. Links of a page to itself are dropped.
+	 * 
+	 * @param nodeCount
+	 *            number of nodes, ids go from 0 to nodeCount - 1
+	 * @param sources
+	 *            source of every edge
+	 * @param targets
+	 *            target of every edge
+	 */
+	public LinkGraph(int nodeCount, int[] sources, int[] targets)
+	{
+		this(null, nodeCount, sources, targets, sources.length);
+	}
+
+
+	private LinkGraph(String[] links, int nodeCount, int[] sources, int[] targets, int edgeCount)
+	{
+		this.links = links;
+		this.inOffsets = new int[nodeCount + 1];
+		this.outDegree = new int[nodeCount];
+
+		// Counting sort of the edges by target
+		int kept = 0;
+		for (int e = 0; e < edgeCount; e++)
+		{
+			if (sources[e] != targets[e])
+			{
+				this.inOffsets[targets[e] + 1]++;
+				this.outDegree[sources[e]]++;
+				kept++;
+			}
+		}
+		for (int v = 0; v < nodeCount; v++)
+		{
+			this.inOffsets[v + 1] += this.inOffsets[v];
+		}
+		this.inSources = new int[kept];
+		int[] next = new int[nodeCount];
+		for (int e = 0; e < edgeCount; e++)
+		{
+			if (sources[e] != targets[e])
+			{
+				int v = targets[e];
+				this.inSources[this.inOffsets[v] + next[v]++] = sources[e];
+			}
+		}
+	}
+
+
+	/**
+	 * Build the graph of crawled pages. Every crawled page and every page they
+	 * link to becomes a node, a page linking to another one several times counts
+	 * once.
+	 * 
+	 * @param outlinks
+	 *            links found on every crawled page
+	 * @return graph of the pages
+	 */
+	public static LinkGraph fromOutlinks(Map<String, ? extends Collection<String>> outlinks)
+	{
+		HashMap<String, Integer> ids = new HashMap<>();
+		for (String page : outlinks.keySet())
+		{
+			ids.putIfAbsent(page, ids.size());
+		}
+		int edges = 0;
+		for (Collection<String> targets : outlinks.values())
+		{
+			edges += targets.size();
+		}
+		int[] sources = new int[edges];
+		int[] targets = new int[edges];
+		int edgeCount = 0;
+		for (Map.Entry<String, ? extends Collection<String>> entry : outlinks.entrySet())
+		{
+			int source = ids.get(entry.getKey());
+			for (String target : new LinkedHashSet<>(entry.getValue()))
+			{
+				Integer id = ids.get(target);
+				if (id == null)
+				{
+					id = ids.size();
+					ids.put(target, id);
+				}
+				sources[edgeCount] = source;
+				targets[edgeCount++] = id;
+			}
+		}
+		String[] links = new String[ids.size()];
+		for (Map.Entry<String, Integer> entry : ids.entrySet())
+		{
+			links[entry.getValue()] = entry.getKey();
+		}
+		return new LinkGraph(links, links.length, sources, targets, edgeCount);
+	}
+
+
+	public int nodeCount()
+	{
+		return this.outDegree.length;
+	}
+
+
+	public int edgeCount()
+	{
+		return this.inSources.length;
+	}
+
+
+	/**
+	 * @param node
+	 *            id of a node
+	 * @return link of the page, null for graphs built from ids
+	 */
+	public String getLink(int node)
+	{
+		return this.links == null ? null : this.links[node];
+	}
+
+
+	/**
+	 * @param node
+	 *            id of a node
+	 * @return number of pages linking to the node
+	 */
+	public int inDegree(int node)
+	{
+		return this.inOffsets[node + 1] - this.inOffsets[node];
+	}
+
+
+	/**
+	 * @param node
+	 *            id of a node
+	 * @return number of pages the node links to
+	 */
+	public int outDegree(int node)
+	{
+		return this.outDegree[node];
+	}
+}
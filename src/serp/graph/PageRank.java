@@ -0,0 +1,154 @@
+package serp.graph;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * PageRank of a link graph by power iteration. Every iteration pulls the rank
+ * of a node from the nodes linking to it, so nodes are updated independently
+ * and the iteration runs on all cores without locks. The rank of pages without
+ * outgoing links is spread evenly over all pages.
+ */
+public class PageRank
+{
+	public static final double DAMPING = 0.85;
+	public static final double TOLERANCE = 1e-6; // total change of the ranks at which they are stable
+	public static final int MAX_ITERATIONS = 100;
+
+	private static final int CHUNK = 1 << 12; // nodes per parallel task
+
+
+	/**
+	 * Compute the PageRank with the usual damping factor
+	 * 
+	 * @param graph
+	 *            link graph
+	 * @return rank of every node, the ranks add up to 1
+	 */
+	public static double[] compute(LinkGraph graph)
+	{
+		return PageRank.compute(graph, DAMPING, TOLERANCE, MAX_ITERATIONS);
+	}
+
+
+	/**
+	 * Compute the PageRank
+	 * 
+	 * @param graph
+	 *            link graph
+	 * @param damping
+	 *            probability of following a link instead of jumping to a random
+	 *            page
+	 * @param tolerance
+	 *            the iteration stops when the ranks change less than this in total
+	 * @param maxIterations
+	 *            upper bound of the number of iterations
+	 * @return rank of every node, the ranks add up to 1
+	 */
+	public static double[] compute(LinkGraph graph, double damping, double tolerance, int maxIterations)
+	{
+		int n = graph.nodeCount();
+		if (n == 0)
+		{
+			return new double[0];
+		}
+		int chunks = (n + CHUNK - 1) / CHUNK;
+		double[] rank = new double[n];
+		double[] next = new double[n];
+		double[] contribution = new double[n];
+		double[] partial = new double[chunks];
+		Arrays.fill(rank, 1.0 / n);
+
+		for (int iteration = 0; iteration < maxIterations; iteration++)
+		{
+			// Share of every node per outgoing link, and the rank of dangling nodes
+			double[] current = rank;
+			IntStream.range(0, chunks).parallel().forEach(c -> {
+				double dangling = 0;
+				for (int u = c * CHUNK, end = Math.min(n, u + CHUNK); u < end; u++)
+				{
+					int degree = graph.outDegree[u];
+					if (degree == 0)
+					{
+						dangling += current[u];
+						contribution[u] = 0;
+					}
+					else
+					{
+						contribution[u] = current[u] / degree;
+					}
+				}
+				partial[c] = dangling;
+			});
+			double base = (1 - damping) / n + damping * PageRank.sum(partial) / n;
+
+			double[] updated = next;
+			IntStream.range(0, chunks).parallel().forEach(c -> {
+				double change = 0;
+				for (int v = c * CHUNK, end = Math.min(n, v + CHUNK); v < end; v++)
+				{
+					double pulled = 0;
+					for (int e = graph.inOffsets[v]; e < graph.inOffsets[v + 1]; e++)
+					{
+						pulled += contribution[graph.inSources[e]];
+					}
+					updated[v] = base + damping * pulled;
+					change += Math.abs(updated[v] - current[v]);
+				}
+				partial[c] = change;
+			});
+			next = rank;
+			rank = updated;
+			if (PageRank.sum(partial) < tolerance)
+			{
+				break;
+			}
+		}
+		return rank;
+	}
+
+
+	/**
+	 * Scale ranks to whole numbers from 0 to max on a logarithmic scale, because
+	 * PageRank spans orders of magnitude. A page with the average rank or less
+	 * gets 0, the page with the highest rank gets max.
+	 * 
+	 * @param rank
+	 *            ranks of the nodes, adding up to 1
+	 * @param max
+	 *            value of the best page
+	 * @return scaled rank of every node
+	 */
+	public static int[] scale(double[] rank, int max)
+	{
+		int n = rank.length;
+		double best = 0;
+		for (double r : rank)
+		{
+			best = Math.max(best, r);
+		}
+		int[] scaled = new int[n];
+		double top = Math.log(best * n);
+		if (top <= 0)
+		{
+			return scaled; // All pages are equally important
+		}
+		for (int v = 0; v < n; v++)
+		{
+			double relative = Math.log(rank[v] * n) / top;
+			scaled[v] = (int) Math.round(max * Math.max(0, relative));
+		}
+		return scaled;
+	}
+
+
+	private static double sum(double[] values)
+	{
+		double sum = 0;
+		for (double value : values)
+		{
+			sum += value;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,291 @@
+package serp.heap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import serp.RankedElement;
+
+/**
+ * Keeps the k best elements seen so far in a binary min-heap, so the worst of
+ * them is at the root. An element that is not better than the root is rejected
+ * with a single comparison, which makes selecting the top k of n candidates cost
+ * O(n + m log k), with m the number of elements that enter the heap, instead of
+ * the O(n log n) of building a tree. Every element keeps its position in the
+ * heap in its heap position field, so an element can be moved or removed in
+ * O(log k) after its score changed. An element can therefore be in only one
+ * heap at a time. Its index is left alone.
+ * 
+ * @param <E>
+ *            type of the ranked elements
+ */
+public class TopKHeap<E extends RankedElement>
+{
+	private static final Comparator<RankedElement> SCORE = Comparator.comparingInt(RankedElement::getScore);
+
+	private final RankedElement[] heap;
+	private final Comparator<? super E> order;
+	private int size;
+
+
+	/**
+	 * Heap that ranks elements by score only
+	 * 
+	 * @param capacity
+	 *            number of elements to keep
+	 */
+	public TopKHeap(int capacity)
+	{
+		this(capacity, TopKHeap.SCORE);
+	}
+
+
+	/**
+	 * @param capacity
+	 *            number of elements to keep
+	 * @param order
+	 *            order of the elements, the k biggest ones are kept
+	 */
+	public TopKHeap(int capacity, Comparator<? super E> order)
+	{
+		if (capacity <= 0)
+		{
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		this.heap = new RankedElement[capacity];
+		this.order = order;
+	}
+
+
+	/**
+	 * Offer a candidate. It is kept if the heap is not full or if it is better
+	 * than the worst element kept, which is evicted then.
+	 * 
+	 * @param element
+	 *            candidate that is not in the heap
+	 * @return true if the element was kept
+	 */
+	public boolean offer(E element)
+	{
+		if (this.size < this.heap.length)
+		{
+			this.heap[this.size] = element;
+			this.siftUp(this.size++);
+			return true;
+		}
+		if (this.order.compare(element, this.element(0)) <= 0)
+		{
+			return false;
+		}
+		this.heap[0].setHeapPosition(-1);
+		this.heap[0] = element;
+		this.siftDown(0);
+		return true;
+	}
+
+
+	/**
+	 * Restore the heap order after the score of an element in the heap changed.
+	 * An element whose score dropped stays in the heap even if a rejected
+	 * candidate would now rank above it.
+	 * 
+	 * @param element
+	 *            element in the heap
+	 * @throws NoSuchElementException
+	 *             if the element is not in the heap
+	 */
+	public void update(E element)
+	{
+		int i = this.positionOf(element);
+		if (!this.siftUp(i))
+		{
+			this.siftDown(i);
+		}
+	}
+
+
+	/**
+	 * Remove an element from the heap
+	 * 
+	 * @param element
+	 *            element to remove
+	 * @return true if the element was in the heap
+	 */
+	public boolean remove(E element)
+	{
+		int i = element.getHeapPosition();
+		if (i < 0 || i >= this.size || this.heap[i] != element)
+		{
+			return false;
+		}
+		element.setHeapPosition(-1);
+		this.size--;
+		if (i != this.size)
+		{
+			this.heap[i] = this.heap[this.size];
+			if (!this.siftUp(i))
+			{
+				this.siftDown(i);
+			}
+		}
+		this.heap[this.size] = null;
+		return true;
+	}
+
+
+	/**
+	 * Remove the worst element kept
+	 * 
+	 * @return the element at the root, null if the heap is empty
+	 */
+	public E poll()
+	{
+		if (this.size == 0)
+		{
+			return null;
+		}
+		E root = this.element(0);
+		this.remove(root);
+		return root;
+	}
+
+
+	/**
+	 * @return the worst element kept, which the next candidate has to beat once
+	 *         the heap is full, null if the heap is empty
+	 */
+	public E peek()
+	{
+		return this.size == 0 ? null : this.element(0);
+	}
+
+
+	/**
+	 * @return number of elements in the heap
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+
+	/**
+	 * @return maximum number of elements kept
+	 */
+	public int capacity()
+	{
+		return this.heap.length;
+	}
+
+
+	/**
+	 * Elements of the heap from the best to the worst. The heap is not changed.
+	 * 
+	 * @return elements in descending order
+	 */
+	public List<E> toDescendingList()
+	{
+		List<E> elements = new ArrayList<E>(this.size);
+		for (int i = 0; i < this.size; i++)
+		{
+			elements.add(this.element(i));
+		}
+		elements.sort(Collections.reverseOrder(this.order));
+		return elements;
+	}
+
+
+	/**
+	 * Remove all elements from the heap
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < this.size; i++)
+		{
+			this.heap[i].setHeapPosition(-1);
+		}
+		Arrays.fill(this.heap, 0, this.size, null);
+		this.size = 0;
+	}
+
+
+	private int positionOf(E element)
+	{
+		int i = element.getHeapPosition();
+		if (i < 0 || i >= this.size || this.heap[i] != element)
+		{
+			throw new NoSuchElementException("Element is not in the heap");
+		}
+		return i;
+	}
+
+
+	/**
+	 * Move the element at position i up while it is worse than its parent
+	 * 
+	 * @return true if the element moved
+	 */
+	private boolean siftUp(int i)
+	{
+		RankedElement moving = this.heap[i];
+		int start = i;
+		while (i > 0)
+		{
+			int parent = (i - 1) >>> 1;
+			if (this.compare(moving, this.heap[parent]) >= 0)
+			{
+				break;
+			}
+			this.heap[i] = this.heap[parent];
+			this.heap[i].setHeapPosition(i);
+			i = parent;
+		}
+		this.heap[i] = moving;
+		moving.setHeapPosition(i);
+		return i != start;
+	}
+
+
+	/**
+	 * Move the element at position i down while one of its children is worse
+	 */
+	private void siftDown(int i)
+	{
+		RankedElement moving = this.heap[i];
+		int half = this.size >>> 1; // positions below half have a child
+		while (i < half)
+		{
+			int child = 2 * i + 1;
+			if (child + 1 < this.size && this.compare(this.heap[child + 1], this.heap[child]) < 0)
+			{
+				child++;
+			}
+			if (this.compare(moving, this.heap[child]) <= 0)
+			{
+				break;
+			}
+			this.heap[i] = this.heap[child];
+			this.heap[i].setHeapPosition(i);
+			i = child;
+		}
+		this.heap[i] = moving;
+		moving.setHeapPosition(i);
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private int compare(RankedElement a, RankedElement b)
+	{
+		return this.order.compare((E) a, (E) b);
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private E element(int i)
+	{
+		return (E) this.heap[i];
+	}
+}
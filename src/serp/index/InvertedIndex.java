@@ -0,0 +1,146 @@
+package serp.index;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory inverted index of crawled pages. Maps every term to the compressed
+ * list of pages that contain it, so a keyword query is answered by decoding one
+ * postings list instead of crawling.
+ */
+public class InvertedIndex
+{
+	/**
+	 * Receives the postings of a term
+	 */
+	public interface PostingVisitor
+	{
+		void visit(int page, int termFrequency);
+	}
+
+	private final HashMap<String, PostingsList> postings = new HashMap<>();
+	private final ArrayList<String> links = new ArrayList<>();
+	private final HashMap<String, Integer> pageIds = new HashMap<>();
+
+
+	/**
+	 * Index a page. A page is indexed once, adding it again has no effect.
+	 * 
+	 * @param link
+	 *            link of the page
+	 * @param termFrequencies
+	 *            occurrences of every term on the page
+	 * @return id of the page in the index
+	 */
+	public synchronized int addPage(String link, Map<String, Integer> termFrequencies)
+	{
+		Integer known = this.pageIds.get(link);
+		if (known != null)
+		{
+			return known;
+		}
+		int page = this.links.size();
+		this.links.add(link);
+		this.pageIds.put(link, page);
+		HashMap<String, Integer> normalized = new HashMap<>();
+		for (Map.Entry<String, Integer> entry : termFrequencies.entrySet())
+		{
+			normalized.merge(InvertedIndex.normalize(entry.getKey()), entry.getValue(), Integer::sum);
+		}
+		for (Map.Entry<String, Integer> entry : normalized.entrySet())
+		{
+			this.postings.computeIfAbsent(entry.getKey(), term -> new PostingsList()).add(page, entry.getValue());
+		}
+		return page;
+	}
+
+
+	/**
+	 * Number of pages containing a term
+	 * 
+	 * @param term
+	 *            word to look up, case is ignored
+	 * @return number of indexed pages with the term
+	 */
+	public synchronized int documentFrequency(String term)
+	{
+		PostingsList list = this.postings.get(InvertedIndex.normalize(term));
+		return list == null ? 0 : list.documentFrequency();
+	}
+
+
+	/**
+	 * Visit all pages containing a term in ascending order of page id
+	 * 
+	 * @param term
+	 *            word to look up, case is ignored
+	 * @param visitor
+	 *            called with the page id and the occurrences of the term
+	 */
+	public synchronized void forEachPosting(String term, PostingVisitor visitor)
+	{
+		PostingsList list = this.postings.get(InvertedIndex.normalize(term));
+		if (list != null)
+		{
+			list.forEach(visitor);
+		}
+	}
+
+
+	/**
+	 * @param page
+	 *            id of an indexed page
+	 * @return link of the page
+	 */
+	public synchronized String getLink(int page)
+	{
+		return this.links.get(page);
+	}
+
+
+	public synchronized int pageCount()
+	{
+		return this.links.size();
+	}
+
+
+	public synchronized int termCount()
+	{
+		return this.postings.size();
+	}
+
+
+	/**
+	 * Approximate number of bytes used by the encoded postings
+	 * 
+	 * @return size of all postings lists
+	 */
+	public synchronized long postingsBytes()
+	{
+		long bytes = 0;
+		for (PostingsList list : this.postings.values())
+		{
+			bytes += list.sizeInBytes();
+		}
+		return bytes;
+	}
+
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format("InvertedIndex: %d pages, %d terms, %d KB of postings", this.links.size(),
+				this.postings.size(), this.postingsBytes() / 1024);
+	}
+
+
+	/**
+	 * Terms are compared in lower case
+	 */
+	public static String normalize(String term)
+	{
+		return term.trim().toLowerCase(Locale.ROOT);
+	}
+}
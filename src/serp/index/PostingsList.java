@@ -0,0 +1,109 @@
+package serp.index;
+
+import java.util.Arrays;
+
+/**
+ * Postings of one term: the ids of the pages containing the term, each with the
+ * number of occurrences. Page ids are added in ascending order and stored as
+ * gaps to the previous id, gaps and frequencies are variable byte encoded. Most
+ * postings take two bytes.
+ */
+public class PostingsList
+{
+	private byte[] data = new byte[8];
+	private int length = 0;
+	private int lastPage = -1;
+	private int documentFrequency = 0;
+
+
+	/**
+	 * Append a posting
+	 * 
+	 * @param page
+	 *            id of the page, bigger than all ids added before
+	 * @param termFrequency
+	 *            occurrences of the term on the page
+	 */
+	public void add(int page, int termFrequency)
+	{
+		if (page <= this.lastPage)
+		{
+			throw new IllegalArgumentException("Page " + page + " added after page " + this.lastPage);
+		}
+		if (this.data.length - this.length < 10)
+		{
+			this.data = Arrays.copyOf(this.data, this.data.length * 2);
+		}
+		this.writeVarInt(page - this.lastPage);
+		this.writeVarInt(termFrequency);
+		this.lastPage = page;
+		this.documentFrequency++;
+	}
+
+
+	/**
+	 * Decode the postings in ascending order of page id
+	 * 
+	 * @param visitor
+	 *            called for every posting
+	 */
+	public void forEach(InvertedIndex.PostingVisitor visitor)
+	{
+		int page = -1;
+		int position = 0;
+		while (position < this.length)
+		{
+			int gap = 0;
+			int shift = 0;
+			byte b;
+			do
+			{
+				b = this.data[position++];
+				gap |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			int termFrequency = 0;
+			shift = 0;
+			do
+			{
+				b = this.data[position++];
+				termFrequency |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			page += gap;
+			visitor.visit(page, termFrequency);
+		}
+	}
+
+
+	/**
+	 * @return number of pages containing the term
+	 */
+	public int documentFrequency()
+	{
+		return this.documentFrequency;
+	}
+
+
+	/**
+	 * @return number of bytes of the encoded postings
+	 */
+	public int sizeInBytes()
+	{
+		return this.length;
+	}
+
+
+	/**
+	 * Seven bits per byte, lowest first, the high bit marks that more bytes follow
+	 */
+	private void writeVarInt(int value)
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			this.data[this.length++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.data[this.length++] = (byte) value;
+	}
+}
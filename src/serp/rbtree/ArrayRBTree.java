@@ -0,0 +1,197 @@
+package serp.rbtree;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import serp.WebPage;
+
+/**
+ * Red Black Tree that keeps its nodes in parallel primitive arrays instead of
+ * TreeNode objects. Keys, ids and child links live in int arrays and colors in
+ * a BitSet, there are no parent links. The fields of a page are stored column
+ * by column as well and a WebPage is only created when a page is read, so an
+ * entry costs about 40 bytes plus its link string, where RBTree keeps a TreeNode
+ * with its header, five references and a Color reference and a WebPage object
+ * for every entry, about 96 bytes. Searches walk densely packed arrays.
+ */
+public class ArrayRBTree extends SlotRBTree
+{
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int[] keys;
+	private int[] ids;
+	private int[] left;
+	private int[] right;
+	private int[] wordFrequencies;
+	private int[] daysExisted;
+	private int[] numberOfLinks;
+	private int[] adMoney;
+	private int[] indexes;
+	private String[] links;
+	private final BitSet red = new BitSet(); // set bit means red node
+
+
+	public ArrayRBTree()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+
+	/**
+	 * Create an empty tree with room for a number of pages
+	 * 
+	 * @param capacity
+	 *            expected number of pages
+	 */
+	public ArrayRBTree(int capacity)
+	{
+		capacity = Math.max(capacity, 1) + 1; // slot 0 is the sentinel
+		this.keys = new int[capacity];
+		this.ids = new int[capacity];
+		this.left = new int[capacity];
+		this.right = new int[capacity];
+		this.wordFrequencies = new int[capacity];
+		this.daysExisted = new int[capacity];
+		this.numberOfLinks = new int[capacity];
+		this.adMoney = new int[capacity];
+		this.indexes = new int[capacity];
+		this.links = new String[capacity];
+	}
+
+
+	/**
+	 * Remove all elements from the tree, keeping the allocated arrays
+	 */
+	public void clear()
+	{
+		Arrays.fill(this.links, null);
+		this.red.clear();
+		this.root = NIL;
+		this.size = 0;
+		this.freeList = NIL;
+		this.nextSlot = 1;
+	}
+
+
+	/**
+	 * Approximate number of bytes used by the arrays of the tree, not counting the
+	 * link strings
+	 * 
+	 * @return memory used by the tree and the page fields
+	 */
+	public long memoryUsage()
+	{
+		// nine int arrays and one reference array (4 bytes with compressed oops)
+		return 40L * this.keys.length + this.red.size() / 8;
+	}
+
+
+	@Override
+	protected int key(int x)
+	{
+		return this.keys[x];
+	}
+
+
+	@Override
+	protected int id(int x)
+	{
+		return this.ids[x];
+	}
+
+
+	@Override
+	protected int left(int x)
+	{
+		return this.left[x];
+	}
+
+
+	@Override
+	protected int right(int x)
+	{
+		return this.right[x];
+	}
+
+
+	@Override
+	protected boolean isRed(int x)
+	{
+		return this.red.get(x);
+	}
+
+
+	@Override
+	protected void setLeft(int x, int y)
+	{
+		this.left[x] = y;
+	}
+
+
+	@Override
+	protected void setRight(int x, int y)
+	{
+		this.right[x] = y;
+	}
+
+
+	@Override
+	protected void setRed(int x, boolean red)
+	{
+		this.red.set(x, red);
+	}
+
+
+	@Override
+	protected WebPage page(int x)
+	{
+		WebPage page = new WebPage(this.ids[x], this.links[x], this.wordFrequencies[x], this.daysExisted[x],
+				this.numberOfLinks[x], this.adMoney[x], this.indexes[x]);
+		// The constructor scores with the current function, the tree is ordered by
+		// the score the page was stored with
+		page.setScore(this.keys[x]);
+		return page;
+	}
+
+
+	@Override
+	protected void store(int x, WebPage page)
+	{
+		this.keys[x] = page.getScore();
+		this.ids[x] = page.getId();
+		this.wordFrequencies[x] = page.getWordFrequency();
+		this.daysExisted[x] = page.getDaysExisted();
+		this.numberOfLinks[x] = page.getNumberOfLinks();
+		this.adMoney[x] = page.getAdMoney();
+		this.indexes[x] = page.getIndex();
+		this.links[x] = page.getLink();
+	}
+
+
+	@Override
+	protected void erase(int x)
+	{
+		this.links[x] = null;
+	}
+
+
+	@Override
+	protected void ensureCapacity(int slots)
+	{
+		if (slots <= this.keys.length)
+		{
+			return;
+		}
+		int capacity = Math.max(slots, this.keys.length * 2);
+		this.keys = Arrays.copyOf(this.keys, capacity);
+		this.ids = Arrays.copyOf(this.ids, capacity);
+		this.left = Arrays.copyOf(this.left, capacity);
+		this.right = Arrays.copyOf(this.right, capacity);
+		this.wordFrequencies = Arrays.copyOf(this.wordFrequencies, capacity);
+		this.daysExisted = Arrays.copyOf(this.daysExisted, capacity);
+		this.numberOfLinks = Arrays.copyOf(this.numberOfLinks, capacity);
+		this.adMoney = Arrays.copyOf(this.adMoney, capacity);
+		this.indexes = Arrays.copyOf(this.indexes, capacity);
+		this.links = Arrays.copyOf(this.links, capacity);
+	}
+}
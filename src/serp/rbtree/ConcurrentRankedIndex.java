@@ -0,0 +1,285 @@
+package serp.rbtree;
+
+import java.util.concurrent.locks.StampedLock;
+
+import serp.WebPage;
+
+/**
+ * Thread safe wrapper around RBTree. Many query threads can look up pages
+ * concurrently while a single writer inserts and deletes. Rank lookups first try
+ * an optimistic read that takes no lock at all and fall back to a shared read
+ * lock only if a write happened in the meantime.
+ */
+public class ConcurrentRankedIndex
+{
+	// Height of a red black tree with at most 2^31 nodes is below 2 * 32. An
+	// optimistic walk that takes more steps has seen a tree in the middle of a
+	// rotation.
+	private static final int MAX_HEIGHT = 64;
+
+	private final RBTree tree;
+	private final StampedLock lock = new StampedLock();
+
+
+	public ConcurrentRankedIndex()
+	{
+		this(new RBTree());
+	}
+
+
+	/**
+	 * Wrap an existing tree. The tree must not be used directly afterwards.
+	 * 
+	 * @param tree
+	 *            tree to guard
+	 */
+	public ConcurrentRankedIndex(RBTree tree)
+	{
+		this.tree = tree;
+	}
+
+
+	/**
+	 * Insert a web page into the index
+	 * 
+	 * @param page
+	 *            page to insert
+	 */
+	public void insert(WebPage page)
+	{
+		long stamp = this.lock.writeLock();
+		try
+		{
+			this.tree.rbInsert(page);
+		}
+		finally
+		{
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+
+	/**
+	 * Delete a specific web page from the index
+	 * 
+	 * @param page
+	 *            page to delete
+	 * @return true if the page was deleted
+	 */
+	public boolean delete(WebPage page)
+	{
+		long stamp = this.lock.writeLock();
+		try
+		{
+			return this.tree.delete(page);
+		}
+		finally
+		{
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+
+	/**
+	 * Delete the first web page with specific score from the index
+	 * 
+	 * @param score
+	 *            score of the page to delete
+	 * @return true if a page was deleted
+	 */
+	public boolean deleteByScore(int score)
+	{
+		long stamp = this.lock.writeLock();
+		try
+		{
+			TreeNode node = this.tree.treeSearch(score);
+			this.tree.rbDelete(node);
+			return node != null;
+		}
+		finally
+		{
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+
+	/**
+	 * Remove all elements from the index
+	 */
+	public void clear()
+	{
+		long stamp = this.lock.writeLock();
+		try
+		{
+			this.tree.clear();
+		}
+		finally
+		{
+			this.lock.unlockWrite(stamp);
+		}
+	}
+
+
+	/**
+	 * Number of pages in the index. Never blocks unless a write is in progress.
+	 * 
+	 * @return number of pages
+	 */
+	public int size()
+	{
+		long stamp = this.lock.tryOptimisticRead();
+		int size = this.tree.size();
+		if (this.lock.validate(stamp))
+		{
+			return size;
+		}
+		stamp = this.lock.readLock();
+		try
+		{
+			return this.tree.size();
+		}
+		finally
+		{
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+
+	/**
+	 * Find web page with specific rank. Where rank = 1 has the biggest score
+	 * 
+	 * @param rank
+	 *            page rank to find
+	 * @return WebPage with specific rank, the page with the smallest score if rank
+	 *         is out of range, null if the index is empty
+	 */
+	public WebPage getDataByRank(int rank)
+	{
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0)
+		{
+			try
+			{
+				WebPage page = this.optimisticDataByRank(rank);
+				if (this.lock.validate(stamp))
+				{
+					return page;
+				}
+			}
+			catch (RuntimeException exception)
+			{
+				// Saw a half updated tree, retry under the read lock
+			}
+		}
+		stamp = this.lock.readLock();
+		try
+		{
+			return this.tree.size() == 0 ? null : this.tree.getDataByRank(rank);
+		}
+		finally
+		{
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+
+	/**
+	 * Web pages with the k biggest scores in descending order. The returned array
+	 * is a consistent snapshot that later writes do not change.
+	 * 
+	 * @param k
+	 *            number of pages to return
+	 * @return at most k pages, the page with the biggest score first
+	 */
+	public WebPage[] topK(int k)
+	{
+		return this.page(0, k);
+	}
+
+
+	/**
+	 * One page of results in descending order of score, taken under a shared read
+	 * lock so readers do not block each other.
+	 * 
+	 * @param offset
+	 *            number of top results to skip
+	 * @param limit
+	 *            maximum number of results to return
+	 * @return at most limit pages starting from rank offset + 1
+	 */
+	public WebPage[] page(int offset, int limit)
+	{
+		long stamp = this.lock.readLock();
+		try
+		{
+			return this.tree.page(offset, limit);
+		}
+		finally
+		{
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+
+	/**
+	 * Number of web pages whose score lies in a range, counted under a shared read
+	 * lock in O(log n)
+	 * 
+	 * @param lo
+	 *            smallest score to count
+	 * @param hi
+	 *            biggest score to count
+	 * @return number of pages with lo <= score <= hi
+	 */
+	public int countRange(int lo, int hi)
+	{
+		long stamp = this.lock.readLock();
+		try
+		{
+			return this.tree.countRange(lo, hi);
+		}
+		finally
+		{
+			this.lock.unlockRead(stamp);
+		}
+	}
+
+
+	/**
+	 * Same walk as RBTree.getDataByRank but safe to run against a tree that is
+	 * being modified: it never loops more than the maximum tree height. The result
+	 * is only meaningful if the optimistic stamp validates afterwards.
+	 * 
+	 * @param rank
+	 *            page rank to find
+	 * @return candidate page for the rank
+	 */
+	private WebPage optimisticDataByRank(int rank)
+	{
+		int size = this.tree.size();
+		if (size == 0)
+		{
+			return null;
+		}
+		int i = rank > 0 && rank <= size ? size - rank + 1 : 1;
+		TreeNode x = this.tree.root;
+		for (int steps = 0; steps < MAX_HEIGHT && x != RBTree.nullNode; steps++)
+		{
+			int r = x.left.size + 1;
+			if (i == r)
+			{
+				return x.data;
+			}
+			else if (i < r)
+			{
+				x = x.left;
+			}
+			else
+			{
+				i = i - r;
+				x = x.right;
+			}
+		}
+		throw new IllegalStateException("Tree changed during optimistic read");
+	}
+}
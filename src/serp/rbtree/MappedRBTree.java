@@ -0,0 +1,418 @@
+package serp.rbtree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import serp.WebPage;
+
+/**
+ * Red Black Tree stored off heap in a memory mapped file. Every slot is a fixed
+ * size record holding the key, links, color and the features of the page, so
+ * the index survives restarts, is reopened without rebuilding anything, can be
+ * shared read only between processes and is never scanned by the garbage
+ * collector. Pages are materialized as WebPage objects only when read.
+ * 
+ * The file starts with a header block of the same size as a record, slot x is
+ * stored right after it at (x + 1) * RECORD_SIZE. The file is mapped in segments
+ * of up to 1 GiB because a single mapping is limited to 2 GiB. A link must fit
+ * into the rest of its record, pages with a link longer than 82 bytes of UTF-8
+ * are rejected.
+ */
+public class MappedRBTree extends SlotRBTree implements Closeable
+{
+	private static final int MAGIC = 0x53524254; // "SRBT"
+	private static final int VERSION = 1;
+	private static final int RECORD_SIZE = 128;
+	private static final int RECORDS_PER_SEGMENT = 1 << 23;
+	private static final long SEGMENT_BYTES = (long) RECORDS_PER_SEGMENT * RECORD_SIZE;
+	private static final int INITIAL_SLOTS = 1024;
+
+	// Header fields
+	private static final int HEADER_MAGIC = 0;
+	private static final int HEADER_VERSION = 4;
+	private static final int HEADER_RECORD_SIZE = 8;
+	private static final int HEADER_ROOT = 12;
+	private static final int HEADER_SIZE = 16;
+	private static final int HEADER_FREE_LIST = 20;
+	private static final int HEADER_NEXT_SLOT = 24;
+
+	// Record fields
+	private static final int KEY = 0;
+	private static final int ID = 4;
+	private static final int LEFT = 8;
+	private static final int RIGHT = 12;
+	// 16 to 19 held the parent link, which the tree no longer keeps
+	private static final int FLAGS = 20; // bit 0 set means red
+	private static final int WORD_FREQUENCY = 24;
+	private static final int DAYS_EXISTED = 28;
+	private static final int NUMBER_OF_LINKS = 32;
+	private static final int AD_MONEY = 36;
+	private static final int INDEX = 40;
+	private static final int LINK_LENGTH = 44; // short
+	private static final int LINK = 46;
+	private static final int MAX_LINK_BYTES = RECORD_SIZE - LINK;
+
+	private final FileChannel channel;
+	private final FileChannel.MapMode mode;
+	private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	private int mappedSlots = -1; // slots covered by the mapping, excluding the header
+
+
+	private MappedRBTree(FileChannel channel, FileChannel.MapMode mode)
+	{
+		this.channel = channel;
+		this.mode = mode;
+	}
+
+
+	/**
+	 * Create a new empty index file, replacing any existing file
+	 * 
+	 * @param path
+	 *            location of the index file
+	 * @return index opened for reading and writing
+	 * @throws IOException
+	 *             if the file cannot be created or mapped
+	 */
+	public static MappedRBTree create(Path path) throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		MappedRBTree tree = new MappedRBTree(channel, FileChannel.MapMode.READ_WRITE);
+		tree.ensureCapacity(INITIAL_SLOTS);
+		MappedByteBuffer header = tree.segments[0];
+		header.putInt(HEADER_MAGIC, MAGIC);
+		header.putInt(HEADER_VERSION, VERSION);
+		header.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+		tree.stateChanged();
+		return tree;
+	}
+
+
+	/**
+	 * Open an existing index file for reading and writing
+	 * 
+	 * @param path
+	 *            location of the index file
+	 * @return opened index
+	 * @throws IOException
+	 *             if the file cannot be read or is not an index file
+	 */
+	public static MappedRBTree open(Path path) throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		return MappedRBTree.open(channel, FileChannel.MapMode.READ_WRITE);
+	}
+
+
+	/**
+	 * Open an existing index file read only. Several processes can share the
+	 * file this way. Inserts and deletes throw ReadOnlyBufferException.
+	 * 
+	 * @param path
+	 *            location of the index file
+	 * @return opened index
+	 * @throws IOException
+	 *             if the file cannot be read or is not an index file
+	 */
+	public static MappedRBTree openReadOnly(Path path) throws IOException
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		return MappedRBTree.open(channel, FileChannel.MapMode.READ_ONLY);
+	}
+
+
+	private static MappedRBTree open(FileChannel channel, FileChannel.MapMode mode) throws IOException
+	{
+		MappedRBTree tree = new MappedRBTree(channel, mode);
+		long slots = channel.size() / RECORD_SIZE - 1;
+		if (slots < 1)
+		{
+			channel.close();
+			throw new IOException("Not a ranked index file");
+		}
+		tree.map((int) Math.min(slots, Integer.MAX_VALUE));
+		MappedByteBuffer header = tree.segments[0];
+		if (header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_VERSION) != VERSION
+				|| header.getInt(HEADER_RECORD_SIZE) != RECORD_SIZE)
+		{
+			channel.close();
+			throw new IOException("Not a ranked index file");
+		}
+		tree.root = header.getInt(HEADER_ROOT);
+		tree.size = header.getInt(HEADER_SIZE);
+		tree.freeList = header.getInt(HEADER_FREE_LIST);
+		tree.nextSlot = header.getInt(HEADER_NEXT_SLOT);
+		// Slots from 1 to nextSlot - 1 have been used and must be in the file
+		if (tree.nextSlot < 1 || tree.nextSlot > tree.mappedSlots || tree.size < 0 || tree.size >= tree.nextSlot
+				|| (tree.root == NIL) != (tree.size == 0) || !tree.isUsedSlot(tree.root)
+				|| !tree.isUsedSlot(tree.freeList))
+		{
+			channel.close();
+			throw new IOException("Corrupt ranked index file: root " + tree.root + ", size " + tree.size
+					+ ", free list " + tree.freeList + ", next slot " + tree.nextSlot + ", " + tree.mappedSlots
+					+ " slots in the file");
+		}
+		return tree;
+	}
+
+
+	/**
+	 * @return whether x is NIL or a slot that has been handed out
+	 */
+	private boolean isUsedSlot(int x)
+	{
+		return x == NIL || (x > 0 && x < this.nextSlot);
+	}
+
+
+	/**
+	 * Remove all elements from the index, keeping the file
+	 */
+	public void clear()
+	{
+		this.checkWritable();
+		this.root = NIL;
+		this.size = 0;
+		this.freeList = NIL;
+		this.nextSlot = 1;
+		this.stateChanged();
+	}
+
+
+	/**
+	 * Write all changes to the storage device
+	 */
+	public void force()
+	{
+		for (MappedByteBuffer segment : this.segments)
+		{
+			segment.force();
+		}
+	}
+
+
+	@Override
+	public void close() throws IOException
+	{
+		if (this.mode == FileChannel.MapMode.READ_WRITE)
+		{
+			this.force();
+		}
+		this.channel.close();
+	}
+
+
+	@Override
+	protected void checkStorable(WebPage page)
+	{
+		super.checkStorable(page);
+		if (page.getLink().getBytes(StandardCharsets.UTF_8).length > MAX_LINK_BYTES)
+		{
+			throw new IllegalArgumentException("Link is longer than " + MAX_LINK_BYTES + " bytes");
+		}
+	}
+
+
+	@Override
+	protected void checkWritable()
+	{
+		if (this.mode != FileChannel.MapMode.READ_WRITE)
+		{
+			throw new ReadOnlyBufferException();
+		}
+	}
+
+
+	@Override
+	protected void stateChanged()
+	{
+		MappedByteBuffer header = this.segments[0];
+		header.putInt(HEADER_ROOT, this.root);
+		header.putInt(HEADER_SIZE, this.size);
+		header.putInt(HEADER_FREE_LIST, this.freeList);
+		header.putInt(HEADER_NEXT_SLOT, this.nextSlot);
+	}
+
+
+	@Override
+	protected void ensureCapacity(int slots)
+	{
+		if (slots > this.mappedSlots)
+		{
+			this.map((int) Math.min(Integer.MAX_VALUE - 1, Math.max(slots, 2L * this.mappedSlots)));
+		}
+	}
+
+
+	/**
+	 * Map the header and the given number of slots, growing the file if needed
+	 */
+	private void map(int slots)
+	{
+		long bytes = (slots + 1L) * RECORD_SIZE;
+		int count = (int) ((bytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+		MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+		try
+		{
+			for (int i = 0; i < count; i++)
+			{
+				long length = Math.min(SEGMENT_BYTES, bytes - i * SEGMENT_BYTES);
+				if (i < this.segments.length && this.segments[i].capacity() == length)
+				{
+					mapped[i] = this.segments[i];
+				}
+				else
+				{
+					mapped[i] = this.channel.map(this.mode, i * SEGMENT_BYTES, length);
+				}
+			}
+		}
+		catch (IOException exception)
+		{
+			throw new IllegalStateException("Cannot map index file", exception);
+		}
+		this.segments = mapped;
+		this.mappedSlots = slots;
+	}
+
+
+	private MappedByteBuffer segment(int x)
+	{
+		return this.segments[(int) ((x + 1L) * RECORD_SIZE / SEGMENT_BYTES)];
+	}
+
+
+	private int offset(int x)
+	{
+		return (int) ((x + 1L) * RECORD_SIZE % SEGMENT_BYTES);
+	}
+
+
+	private int getInt(int x, int field)
+	{
+		return this.segment(x).getInt(this.offset(x) + field);
+	}
+
+
+	private void putInt(int x, int field, int value)
+	{
+		this.segment(x).putInt(this.offset(x) + field, value);
+	}
+
+
+	@Override
+	protected int key(int x)
+	{
+		return this.getInt(x, KEY);
+	}
+
+
+	@Override
+	protected int id(int x)
+	{
+		return this.getInt(x, ID);
+	}
+
+
+	@Override
+	protected int left(int x)
+	{
+		return this.getInt(x, LEFT);
+	}
+
+
+	@Override
+	protected int right(int x)
+	{
+		return this.getInt(x, RIGHT);
+	}
+
+
+	@Override
+	protected boolean isRed(int x)
+	{
+		return (this.getInt(x, FLAGS) & 1) != 0;
+	}
+
+
+	@Override
+	protected void setLeft(int x, int y)
+	{
+		this.putInt(x, LEFT, y);
+	}
+
+
+	@Override
+	protected void setRight(int x, int y)
+	{
+		this.putInt(x, RIGHT, y);
+	}
+
+
+	@Override
+	protected void setRed(int x, boolean red)
+	{
+		this.putInt(x, FLAGS, red ? 1 : 0);
+	}
+
+
+	@Override
+	protected WebPage page(int x)
+	{
+		MappedByteBuffer segment = this.segment(x);
+		int offset = this.offset(x);
+		int length = segment.getShort(offset + LINK_LENGTH);
+		if (length < 0 || length > MAX_LINK_BYTES)
+		{
+			throw new IllegalStateException("Corrupt record in slot " + x + ": link of " + length + " bytes");
+		}
+		byte[] link = new byte[length];
+		for (int i = 0; i < link.length; i++)
+		{
+			link[i] = segment.get(offset + LINK + i);
+		}
+		WebPage page = new WebPage(segment.getInt(offset + ID), new String(link, StandardCharsets.UTF_8),
+				segment.getInt(offset + WORD_FREQUENCY), segment.getInt(offset + DAYS_EXISTED),
+				segment.getInt(offset + NUMBER_OF_LINKS), segment.getInt(offset + AD_MONEY),
+				segment.getInt(offset + INDEX));
+		// The constructor scores with the current function, the record is ordered by
+		// the score it was stored with
+		page.setScore(segment.getInt(offset + KEY));
+		return page;
+	}
+
+
+	@Override
+	protected void store(int x, WebPage page)
+	{
+		MappedByteBuffer segment = this.segment(x);
+		int offset = this.offset(x);
+		segment.putInt(offset + KEY, page.getScore());
+		segment.putInt(offset + ID, page.getId());
+		segment.putInt(offset + WORD_FREQUENCY, page.getWordFrequency());
+		segment.putInt(offset + DAYS_EXISTED, page.getDaysExisted());
+		segment.putInt(offset + NUMBER_OF_LINKS, page.getNumberOfLinks());
+		segment.putInt(offset + AD_MONEY, page.getAdMoney());
+		segment.putInt(offset + INDEX, page.getIndex());
+		byte[] link = page.getLink().getBytes(StandardCharsets.UTF_8); // length checked by checkStorable()
+		segment.putShort(offset + LINK_LENGTH, (short) link.length);
+		for (int i = 0; i < link.length; i++)
+		{
+			segment.put(offset + LINK + i, link[i]);
+		}
+	}
+
+
+	@Override
+	protected void erase(int x)
+	{
+		this.putInt(x, FLAGS, 0);
+	}
+}
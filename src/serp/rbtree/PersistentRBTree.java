@@ -0,0 +1,568 @@
+package serp.rbtree;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import serp.WebPage;
+
+/**
+ * Persistent (path copying) variant of the Red Black Tree. Nodes are never
+ * modified: insert and delete copy only the nodes on the path they touch and
+ * return a new root that shares all other subtrees with the old one. The current
+ * root is published through an AtomicReference, so a reader gets a consistent
+ * snapshot without waiting and writers never block the query path.
+ * 
+ * Balancing follows the left-leaning red black tree of Sedgewick, which keeps
+ * every update a single recursive pass that is easy to express with immutable
+ * nodes.
+ */
+public class PersistentRBTree
+{
+	private final AtomicReference<Node> root = new AtomicReference<>();
+
+
+	/**
+	 * Immutable tree node. Size is the number of nodes in the subtree.
+	 */
+	private static final class Node
+	{
+		final WebPage data;
+		final int key;
+		final Color color;
+		final Node left;
+		final Node right;
+		final int size;
+
+
+		Node(WebPage data, int key, Color color, Node left, Node right)
+		{
+			this.data = data;
+			this.key = key;
+			this.color = color;
+			this.left = left;
+			this.right = right;
+			this.size = sizeOf(left) + sizeOf(right) + 1;
+		}
+
+
+		Node withLeft(Node left)
+		{
+			return new Node(this.data, this.key, this.color, left, this.right);
+		}
+
+
+		Node withRight(Node right)
+		{
+			return new Node(this.data, this.key, this.color, this.left, right);
+		}
+
+
+		Node withColor(Color color)
+		{
+			return color == this.color ? this : new Node(this.data, this.key, color, this.left, this.right);
+		}
+	}
+
+
+	/**
+	 * Read only view of the tree at one point in time
+	 */
+	public static final class Snapshot
+	{
+		private final Node root;
+
+
+		private Snapshot(Node root)
+		{
+			this.root = root;
+		}
+
+
+		/**
+		 * Accessor for the number of elements in the snapshot
+		 * 
+		 * @return number of web pages
+		 */
+		public int size()
+		{
+			return sizeOf(this.root);
+		}
+
+
+		/**
+		 * Find web page with specific rank. Where rank = 1 has the biggest score
+		 * 
+		 * @param rank
+		 *            page rank to find
+		 * @return WebPage with specific rank, null if rank is out of range
+		 */
+		public WebPage getDataByRank(int rank)
+		{
+			if (rank < 1 || rank > this.size())
+			{
+				return null;
+			}
+			return select(this.root, this.size() - rank + 1).data;
+		}
+
+
+		/**
+		 * Web pages with the k biggest scores in descending order
+		 * 
+		 * @param k
+		 *            number of pages to return
+		 * @return at most k pages, the page with the biggest score first
+		 */
+		public WebPage[] topK(int k)
+		{
+			return this.page(0, k);
+		}
+
+
+		/**
+		 * One page of results in descending order of score. Visits O(log n + limit)
+		 * nodes.
+		 * 
+		 * @param offset
+		 *            number of top results to skip
+		 * @param limit
+		 *            maximum number of results to return
+		 * @return at most limit pages starting from rank offset + 1
+		 */
+		public WebPage[] page(int offset, int limit)
+		{
+			int size = this.size();
+			if (offset < 0 || limit <= 0 || offset >= size)
+			{
+				return new WebPage[0];
+			}
+			WebPage[] pages = new WebPage[Math.min(limit, size - offset)];
+			Node[] stack = new Node[2 * (32 - Integer.numberOfLeadingZeros(size + 1))];
+			int top = 0;
+
+			// Descend to the node with rank offset + 1, keeping the nodes that come
+			// after it in descending order on the stack
+			Node x = this.root;
+			while (x != null)
+			{
+				int r = sizeOf(x.right);
+				if (offset <= r)
+				{
+					stack[top++] = x;
+					if (offset == r)
+					{
+						break;
+					}
+					x = x.right;
+				}
+				else
+				{
+					offset = offset - r - 1;
+					x = x.left;
+				}
+			}
+			for (int i = 0; i < pages.length; i++)
+			{
+				x = stack[--top];
+				pages[i] = x.data;
+				for (Node y = x.left; y != null; y = y.right)
+				{
+					stack[top++] = y;
+				}
+			}
+			return pages;
+		}
+
+
+		/**
+		 * Elements of the snapshot in ascending order
+		 * 
+		 * @return web pages in ascending order of score
+		 */
+		public WebPage[] inOrderTreeWalk()
+		{
+			WebPage[] pages = this.topK(this.size());
+			for (int i = 0, j = pages.length - 1; i < j; i++, j--)
+			{
+				WebPage page = pages[i];
+				pages[i] = pages[j];
+				pages[j] = page;
+			}
+			return pages;
+		}
+	}
+
+
+	/**
+	 * Consistent view of the current tree. Never blocks.
+	 * 
+	 * @return snapshot that later updates do not change
+	 */
+	public Snapshot snapshot()
+	{
+		return new Snapshot(this.root.get());
+	}
+
+
+	/**
+	 * Accessor for the number of elements in the tree
+	 * 
+	 * @return number of web pages
+	 */
+	public int size()
+	{
+		return sizeOf(this.root.get());
+	}
+
+
+	/**
+	 * Insert a web page and publish the new root. Concurrent writers retry on
+	 * conflict.
+	 * 
+	 * @param page
+	 *            data to be inserted
+	 */
+	public void rbInsert(WebPage page)
+	{
+		Node current;
+		Node updated;
+		do
+		{
+			current = this.root.get();
+			updated = rbInsert(current, page);
+		} while (!this.root.compareAndSet(current, updated));
+	}
+
+
+	/**
+	 * Delete a web page with specific score and publish the new root. If several
+	 * pages share the score the first one in ascending order is deleted.
+	 * 
+	 * @param score
+	 *            score of the page to delete
+	 * @return true if a page was deleted
+	 */
+	public boolean rbDelete(int score)
+	{
+		Node current;
+		Node updated;
+		do
+		{
+			current = this.root.get();
+			int i = countLess(current, score, Integer.MIN_VALUE) + 1;
+			if (i > sizeOf(current) || select(current, i).key != score)
+			{
+				return false;
+			}
+			updated = rbDelete(current, i);
+		} while (!this.root.compareAndSet(current, updated));
+		return true;
+	}
+
+
+	/**
+	 * Delete a specific web page and publish the new root
+	 * 
+	 * @param page
+	 *            web page to delete
+	 * @return true if the page was deleted
+	 */
+	public boolean rbDelete(WebPage page)
+	{
+		Node current;
+		Node updated;
+		do
+		{
+			current = this.root.get();
+			int i = countLess(current, page.getScore(), page.getId()) + 1;
+			if (i > sizeOf(current) || select(current, i).data != page)
+			{
+				return false;
+			}
+			updated = rbDelete(current, i);
+		} while (!this.root.compareAndSet(current, updated));
+		return true;
+	}
+
+
+	/**
+	 * Remove all elements from the tree
+	 */
+	public void clear()
+	{
+		this.root.set(null);
+	}
+
+
+	/**
+	 * Insert a web page into the tree rooted at h
+	 * 
+	 * @param h
+	 *            root of the tree, null if empty
+	 * @param page
+	 *            data to be inserted
+	 * @return root of the new tree, h is left unchanged
+	 */
+	private static Node rbInsert(Node h, WebPage page)
+	{
+		return insert(h, page).withColor(Color.BLACK);
+	}
+
+
+	private static Node insert(Node h, WebPage page)
+	{
+		if (h == null)
+		{
+			return new Node(page, page.getScore(), Color.RED, null, null);
+		}
+		if (compare(page.getScore(), page.getId(), h) < 0)
+		{
+			h = h.withLeft(insert(h.left, page));
+		}
+		else
+		{
+			h = h.withRight(insert(h.right, page));
+		}
+		return balance(h);
+	}
+
+
+	/**
+	 * Delete the i-th smallest node from the tree rooted at h. Nodes are addressed
+	 * by rank, which is cheap to keep track of while rotations replace nodes on
+	 * the way down.
+	 * 
+	 * @param h
+	 *            root of the tree
+	 * @param i
+	 *            position of the node in ascending order, starting from 1
+	 * @return root of the new tree, h is left unchanged
+	 */
+	private static Node rbDelete(Node h, int i)
+	{
+		if (!isRed(h.left) && !isRed(h.right))
+		{
+			h = h.withColor(Color.RED);
+		}
+		h = delete(h, i);
+		return h == null ? null : h.withColor(Color.BLACK);
+	}
+
+
+	private static Node delete(Node h, int i)
+	{
+		if (i <= sizeOf(h.left))
+		{
+			if (!isRed(h.left) && !isRed(h.left.left))
+			{
+				h = moveRedLeft(h);
+			}
+			h = h.withLeft(delete(h.left, i));
+		}
+		else
+		{
+			if (isRed(h.left))
+			{
+				h = rotateRight(h);
+			}
+			if (i == sizeOf(h.left) + 1 && h.right == null)
+			{
+				return null;
+			}
+			if (!isRed(h.right) && !isRed(h.right.left))
+			{
+				h = moveRedRight(h);
+			}
+			int r = sizeOf(h.left) + 1;
+			if (i == r)
+			{
+				// Replace h with its successor and delete the successor instead
+				Node x = minimum(h.right);
+				h = new Node(x.data, x.key, h.color, h.left, deleteMinimum(h.right));
+			}
+			else
+			{
+				h = h.withRight(delete(h.right, i - r));
+			}
+		}
+		return balance(h);
+	}
+
+
+	private static Node deleteMinimum(Node h)
+	{
+		if (h.left == null)
+		{
+			return null;
+		}
+		if (!isRed(h.left) && !isRed(h.left.left))
+		{
+			h = moveRedLeft(h);
+		}
+		return balance(h.withLeft(deleteMinimum(h.left)));
+	}
+
+
+	private static Node minimum(Node h)
+	{
+		while (h.left != null)
+		{
+			h = h.left;
+		}
+		return h;
+	}
+
+
+	/**
+	 * Number of nodes in the tree rooted at h that come before the (score, id) key
+	 */
+	private static int countLess(Node h, int score, int id)
+	{
+		int count = 0;
+		while (h != null)
+		{
+			if (compare(score, id, h) > 0)
+			{
+				count = count + sizeOf(h.left) + 1;
+				h = h.right;
+			}
+			else
+			{
+				h = h.left;
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 * The i-th smallest node of the tree rooted at h, 1 <= i <= size
+	 */
+	private static Node select(Node h, int i)
+	{
+		while (true)
+		{
+			int r = sizeOf(h.left) + 1;
+			if (i == r)
+			{
+				return h;
+			}
+			else if (i < r)
+			{
+				h = h.left;
+			}
+			else
+			{
+				i = i - r;
+				h = h.right;
+			}
+		}
+	}
+
+
+	/**
+	 * Copy of h with its right leaning red link turned to the left
+	 */
+	private static Node rotateLeft(Node h)
+	{
+		Node x = h.right;
+		Node y = new Node(h.data, h.key, Color.RED, h.left, x.left);
+		return new Node(x.data, x.key, h.color, y, x.right);
+	}
+
+
+	/**
+	 * Copy of h with its left leaning red link turned to the right
+	 */
+	private static Node rotateRight(Node h)
+	{
+		Node x = h.left;
+		Node y = new Node(h.data, h.key, Color.RED, x.right, h.right);
+		return new Node(x.data, x.key, h.color, x.left, y);
+	}
+
+
+	/**
+	 * Copy of h with the colors of h and both of its children flipped
+	 */
+	private static Node flipColors(Node h)
+	{
+		return new Node(h.data, h.key, flip(h.color), h.left.withColor(flip(h.left.color)),
+				h.right.withColor(flip(h.right.color)));
+	}
+
+
+	private static Node moveRedLeft(Node h)
+	{
+		h = flipColors(h);
+		if (isRed(h.right.left))
+		{
+			h = h.withRight(rotateRight(h.right));
+			h = flipColors(rotateLeft(h));
+		}
+		return h;
+	}
+
+
+	private static Node moveRedRight(Node h)
+	{
+		h = flipColors(h);
+		if (isRed(h.left.left))
+		{
+			h = flipColors(rotateRight(h));
+		}
+		return h;
+	}
+
+
+	/**
+	 * Restore left leaning red black invariants on the way up
+	 */
+	private static Node balance(Node h)
+	{
+		if (isRed(h.right) && !isRed(h.left))
+		{
+			h = rotateLeft(h);
+		}
+		if (isRed(h.left) && isRed(h.left.left))
+		{
+			h = rotateRight(h);
+		}
+		if (isRed(h.left) && isRed(h.right))
+		{
+			h = flipColors(h);
+		}
+		return h;
+	}
+
+
+	/**
+	 * Compare a (score, id) key with the key of node h. Pages are ordered by score,
+	 * pages with equal score by id.
+	 */
+	private static int compare(int score, int id, Node h)
+	{
+		if (score != h.key)
+		{
+			return score < h.key ? -1 : 1;
+		}
+		return Integer.compare(id, h.data.getId());
+	}
+
+
+	private static boolean isRed(Node h)
+	{
+		return h != null && h.color == Color.RED;
+	}
+
+
+	private static Color flip(Color color)
+	{
+		return color == Color.RED ? Color.BLACK : Color.RED;
+	}
+
+
+	private static int sizeOf(Node h)
+	{
+		return h == null ? 0 : h.size;
+	}
+}
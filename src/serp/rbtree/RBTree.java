@@ -1,6 +1,11 @@
 package serp.rbtree;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 import serp.WebPage;
 
@@ -12,8 +17,13 @@ import serp.WebPage;
  */
 public class RBTree
 {
+	// Batches at least this big are built as shards on the fork-join pool
+	private static final int PARALLEL_BUILD_THRESHOLD = 1 << 16;
+
 	public TreeNode root;
 	private int size;
+	// Sentinel shared by all trees. Tree operations only read it, so independent
+	// trees can be modified from different threads at the same time.
 	public static final TreeNode nullNode;
 	static
 	{
@@ -21,6 +31,7 @@ public class RBTree
 		nullNode.left = nullNode;
 		nullNode.right = nullNode;
 		nullNode.p = nullNode;
+		nullNode.size = 0;
 	}
 
 
@@ -41,23 +52,547 @@ public class RBTree
 	}
 
 
+	/**
+	 * Replace the content of the tree with a batch of web pages. Sorts the batch
+	 * (in parallel for large batches) and then builds the tree in linear
+	 * time, which is much cheaper than inserting the pages one by one.
+	 * 
+	 * @param pages
+	 *            web pages in any order
+	 */
+	public void bulkLoad(WebPage[] pages)
+	{
+		// Sort primitive (score, position) pairs rather than the pages themselves:
+		// no comparator calls and no pointer chasing
+		long[] order = new long[pages.length];
+		for (int i = 0; i < pages.length; i++)
+		{
+			order[i] = ((long) pages[i].getScore() << 32) | i;
+		}
+		Arrays.parallelSort(order);
+		WebPage[] sortedPages = new WebPage[pages.length];
+		for (int i = 0; i < order.length; i++)
+		{
+			sortedPages[i] = pages[(int) order[i]];
+		}
+		// Pages with equal scores are ordered by id. Runs are usually in id order
+		// already, only the others need sorting.
+		int start = 0;
+		boolean sorted = true;
+		for (int i = 1; i <= sortedPages.length; i++)
+		{
+			if (i == sortedPages.length || sortedPages[i].getScore() != sortedPages[start].getScore())
+			{
+				if (!sorted)
+				{
+					Arrays.sort(sortedPages, start, i, WebPage.SCORE_ORDER);
+				}
+				start = i;
+				sorted = true;
+			}
+			else if (sortedPages[i].getId() < sortedPages[i - 1].getId())
+			{
+				sorted = false;
+			}
+		}
+		this.bulkLoadSorted(sortedPages);
+	}
+
+
+	/**
+	 * Replace the content of the tree with web pages that are already sorted in
+	 * ascending order of score and id. Builds a balanced tree in linear time: every level
+	 * but the deepest is full and black, the nodes of a partially filled deepest
+	 * level are red, so all paths have the same number of black nodes. Large
+	 * batches are split into shards that are built in parallel on the fork-join
+	 * pool and joined back together.
+	 * 
+	 * @param sortedPages
+	 *            web pages in ascending order of score and id
+	 */
+	public void bulkLoadSorted(WebPage[] sortedPages)
+	{
+		if (sortedPages.length < PARALLEL_BUILD_THRESHOLD)
+		{
+			this.bulkLoadSorted(sortedPages, 0, sortedPages.length - 1);
+		}
+		else
+		{
+			this.takeOver(ForkJoinPool.commonPool()
+					.invoke(new BuildTask(sortedPages, 0, sortedPages.length - 1)));
+		}
+	}
+
+
+	/**
+	 * Replace the content of the tree with a sorted range of web pages
+	 * 
+	 * @param sortedPages
+	 *            web pages in ascending order of score
+	 * @param lo
+	 *            first index of the range
+	 * @param hi
+	 *            last index of the range
+	 */
+	private void bulkLoadSorted(WebPage[] sortedPages, int lo, int hi)
+	{
+		int redDepth = 31 - Integer.numberOfLeadingZeros(hi - lo + 2);
+		this.root = this.buildSubtree(sortedPages, lo, hi, 0, redDepth);
+		if (this.root != RBTree.nullNode)
+		{
+			this.root.p = RBTree.nullNode;
+		}
+		this.size = hi - lo + 1;
+	}
+
+
+	/**
+	 * Fork-join task that builds a sorted range as a tree. Ranges above the
+	 * threshold are split around their middle page, both halves are built in
+	 * parallel and then joined with the middle page as pivot.
+	 */
+	private static class BuildTask extends RecursiveTask<RBTree>
+	{
+		private static final long serialVersionUID = 1L;
+		private static final int SHARD_SIZE = 1 << 14;
+
+		private final WebPage[] sortedPages;
+		private final int lo;
+		private final int hi;
+
+
+		BuildTask(WebPage[] sortedPages, int lo, int hi)
+		{
+			this.sortedPages = sortedPages;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+
+		@Override
+		protected RBTree compute()
+		{
+			RBTree shard = new RBTree();
+			if (this.hi - this.lo < SHARD_SIZE)
+			{
+				shard.bulkLoadSorted(this.sortedPages, this.lo, this.hi);
+				return shard;
+			}
+			int mid = (this.lo + this.hi) >>> 1;
+			BuildTask leftTask = new BuildTask(this.sortedPages, this.lo, mid - 1);
+			leftTask.fork();
+			RBTree right = new BuildTask(this.sortedPages, mid + 1, this.hi).compute();
+			return RBTree.join(leftTask.join(), this.sortedPages[mid], right);
+		}
+	}
+
+
+	/**
+	 * Build a balanced subtree from a sorted range, the middle element becomes the
+	 * root
+	 * 
+	 * @param pages
+	 *            sorted web pages
+	 * @param lo
+	 *            first index of the range
+	 * @param hi
+	 *            last index of the range
+	 * @param depth
+	 *            depth of the subtree root
+	 * @param redDepth
+	 *            depth at which nodes are colored red
+	 * @return root of the subtree, nullNode for an empty range
+	 */
+	private TreeNode buildSubtree(WebPage[] pages, int lo, int hi, int depth, int redDepth)
+	{
+		if (lo > hi)
+		{
+			return RBTree.nullNode;
+		}
+		int mid = (lo + hi) >>> 1;
+		TreeNode x = new TreeNode(pages[mid]);
+		x.left = this.buildSubtree(pages, lo, mid - 1, depth + 1, redDepth);
+		x.right = this.buildSubtree(pages, mid + 1, hi, depth + 1, redDepth);
+		if (x.left != RBTree.nullNode)
+		{
+			x.left.p = x;
+		}
+		if (x.right != RBTree.nullNode)
+		{
+			x.right.p = x;
+		}
+		x.size = hi - lo + 1;
+		x.color = depth == redDepth ? Color.RED : Color.BLACK;
+		return x;
+	}
+
+
+	/**
+	 * Join two trees with a pivot page between them. Every page in left must come
+	 * before the pivot and every page in right after it, by score and then id.
+	 * Runs in O(log n) by hanging the shorter tree off the spine of the taller one
+	 * at the node with the same black height.
+	 * 
+	 * @param left
+	 *            tree with the smaller keys, receives the result
+	 * @param pivot
+	 *            web page that goes between the two trees
+	 * @param right
+	 *            tree with the bigger keys, left empty afterwards
+	 * @return the left tree holding all pages
+	 */
+	public static RBTree join(RBTree left, WebPage pivot, RBTree right)
+	{
+		return RBTree.join(left, new TreeNode(pivot), right);
+	}
+
+
+	/**
+	 * Move all pages with score at least the given one into a new tree. Runs in
+	 * O(log n) joins.
+	 * 
+	 * @param score
+	 *            smallest score that goes into the new tree
+	 * @return tree with the pages whose score is at least score, this tree keeps
+	 *         the rest
+	 */
+	public RBTree splitOff(int score)
+	{
+		RBTree[] parts = RBTree.split(this.detachAll(), score, Integer.MIN_VALUE);
+		this.takeOver(parts[0]);
+		return parts[1];
+	}
+
+
+	/**
+	 * Move all pages of another tree into this one. The trees may overlap in
+	 * scores: the union is built recursively by splitting the other tree around
+	 * the root of this one and joining the halves.
+	 * 
+	 * @param other
+	 *            tree to merge, left empty afterwards
+	 */
+	public void merge(RBTree other)
+	{
+		RBTree union = RBTree.union(this.detachAll(), other.detachAll());
+		this.takeOver(union);
+	}
+
+
+	private static RBTree join(RBTree left, TreeNode k, RBTree right)
+	{
+		int leftHeight = left.blackHeight();
+		int rightHeight = right.blackHeight();
+		k.color = Color.RED;
+		if (leftHeight >= rightHeight)
+		{
+			// Walk down the right spine of left to a black node as high as right
+			TreeNode parent = RBTree.nullNode;
+			TreeNode c = left.root;
+			int h = leftHeight;
+			while (c.color != Color.BLACK || h != rightHeight)
+			{
+				if (c.color == Color.BLACK)
+				{
+					h--;
+				}
+				parent = c;
+				c = c.right;
+			}
+			k.left = c;
+			k.right = right.root;
+			RBTree.link(k, parent);
+			if (parent == RBTree.nullNode)
+			{
+				left.root = k;
+			}
+			else
+			{
+				parent.right = k;
+			}
+			left.addSizes(parent, right.size + 1);
+			left.rbInsertFixup(k);
+		}
+		else
+		{
+			// Walk down the left spine of right to a black node as high as left
+			TreeNode parent = RBTree.nullNode;
+			TreeNode c = right.root;
+			int h = rightHeight;
+			while (c.color != Color.BLACK || h != leftHeight)
+			{
+				if (c.color == Color.BLACK)
+				{
+					h--;
+				}
+				parent = c;
+				c = c.left;
+			}
+			k.left = left.root;
+			k.right = c;
+			RBTree.link(k, parent);
+			parent.left = k;
+			right.addSizes(parent, left.size + 1);
+			right.rbInsertFixup(k);
+			left.takeOver(right);
+		}
+		right.clear();
+		return left;
+	}
+
+
+	/**
+	 * Attach the children of k to it and hang k under parent
+	 */
+	private static void link(TreeNode k, TreeNode parent)
+	{
+		if (k.left != RBTree.nullNode)
+		{
+			k.left.p = k;
+		}
+		if (k.right != RBTree.nullNode)
+		{
+			k.right.p = k;
+		}
+		k.p = parent;
+		k.size = k.left.size + k.right.size + 1;
+	}
+
+
+	/**
+	 * Add delta to the sizes of x and all its ancestors, and to the tree size
+	 */
+	private void addSizes(TreeNode x, int delta)
+	{
+		for (; x != RBTree.nullNode; x = x.p)
+		{
+			x.size += delta;
+		}
+		this.size += delta;
+	}
+
+
+	/**
+	 * Split a tree into pages that come before the (score, id) key and the rest
+	 * 
+	 * @return two trees, the first with smaller keys
+	 */
+	private static RBTree[] split(RBTree t, int score, int id)
+	{
+		if (t.root == RBTree.nullNode)
+		{
+			return new RBTree[] { t, new RBTree() };
+		}
+		TreeNode x = t.root;
+		RBTree left = RBTree.subtree(x.left);
+		RBTree right = RBTree.subtree(x.right);
+		if (RBTree.compare(score, id, x) > 0)
+		{
+			RBTree[] parts = RBTree.split(right, score, id);
+			return new RBTree[] { RBTree.join(left, x, parts[0]), parts[1] };
+		}
+		else
+		{
+			RBTree[] parts = RBTree.split(left, score, id);
+			return new RBTree[] { parts[0], RBTree.join(parts[1], x, right) };
+		}
+	}
+
+
+	/**
+	 * Union of two trees whose scores may interleave
+	 */
+	private static RBTree union(RBTree a, RBTree b)
+	{
+		if (a.root == RBTree.nullNode)
+		{
+			return b;
+		}
+		if (b.root == RBTree.nullNode)
+		{
+			return a;
+		}
+		TreeNode x = a.root;
+		RBTree left = RBTree.subtree(x.left);
+		RBTree right = RBTree.subtree(x.right);
+		RBTree[] parts = RBTree.split(b, x.key, x.data.getId());
+		return RBTree.join(RBTree.union(left, parts[0]), x, RBTree.union(right, parts[1]));
+	}
+
+
+	/**
+	 * Wrap a subtree into a tree of its own. The subtree root is colored black,
+	 * which keeps it a valid red black tree.
+	 */
+	private static RBTree subtree(TreeNode x)
+	{
+		RBTree t = new RBTree();
+		if (x != RBTree.nullNode)
+		{
+			x.p = RBTree.nullNode;
+			x.color = Color.BLACK;
+			t.root = x;
+			t.size = x.size;
+		}
+		return t;
+	}
+
+
+	/**
+	 * Number of black nodes on a path from the root to a leaf
+	 */
+	private int blackHeight()
+	{
+		int h = 0;
+		for (TreeNode x = this.root; x != RBTree.nullNode; x = x.left)
+		{
+			if (x.color == Color.BLACK)
+			{
+				h++;
+			}
+		}
+		return h;
+	}
+
+
+	/**
+	 * Move the nodes of this tree into a new tree object and leave this one empty
+	 */
+	private RBTree detachAll()
+	{
+		RBTree t = new RBTree();
+		t.takeOver(this);
+		this.clear();
+		return t;
+	}
+
+
+	/**
+	 * Make this tree use the nodes of another one
+	 */
+	private void takeOver(RBTree other)
+	{
+		this.root = other.root;
+		this.size = other.size;
+	}
+
+
+	/**
+	 * Accessor for the number of elements in the tree
+	 * 
+	 * @return number of web pages stored in the tree
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+
 	/**
 	 * Find web page with specific rank. Where rank = 1 has the biggest score
 	 * 
 	 * @param rank
 	 *            page rank to find
-	 * @return WebPage with specific rank
+	 * @return WebPage with specific rank, the page with the smallest score if rank
+	 *         is out of range, null if the tree is empty
 	 */
 	public WebPage getDataByRank(int rank)
 	{
-		WebPage[] orderedPages = this.inOrderTreeWalk();
-		int index = this.size - rank;
+		if (this.size == 0)
+		{
+			return null;
+		}
+		if (rank > 0 && rank <= this.size)
+		{
+			return this.select(this.size - rank + 1).data;
+		}
+		return this.select(1).data;
+	}
+
 
-		if (index > 0 && rank > 0)
+	/**
+	 * Find the node with the i-th smallest key using subtree sizes. Runs in O(log n)
+	 * 
+	 * @param i
+	 *            position in ascending order, starting from 1
+	 * @return node with the i-th smallest key, nullNode if i is out of range
+	 */
+	public TreeNode select(int i)
+	{
+		if (i < 1 || i > this.size)
 		{
-			return orderedPages[this.size - rank];
+			return RBTree.nullNode;
+		}
+		TreeNode x = this.root;
+		while (x != RBTree.nullNode)
+		{
+			int r = x.left.size + 1;
+			if (i == r)
+			{
+				return x;
+			}
+			else if (i < r)
+			{
+				x = x.left;
+			}
+			else
+			{
+				i = i - r;
+				x = x.right;
+			}
+		}
+		return x;
+	}
+
+
+	/**
+	 * Determine the position of node x in the in-order walk of the tree using
+	 * subtree sizes. Runs in O(log n)
+	 * 
+	 * @param x
+	 *            node of this tree
+	 * @return position of x in ascending order, starting from 1
+	 * @throws IllegalArgumentException
+	 *             if the walk up from x does not reach the root of this tree
+	 */
+	public int rankOf(TreeNode x)
+	{
+		if (x == null || x == RBTree.nullNode)
+		{
+			throw new IllegalArgumentException("Not a node of this tree");
+		}
+		int r = x.left.size + 1;
+		TreeNode y = x;
+		while (y != this.root)
+		{
+			if (y.p == RBTree.nullNode)
+			{
+				throw new IllegalArgumentException("Not a node of this tree");
+			}
+			if (y == y.p.right)
+			{
+				r = r + y.p.left.size + 1;
+			}
+			y = y.p;
+		}
+		return r;
+	}
+
+
+	/**
+	 * Recalculate subtree sizes on the path from x up to the root after nodes were
+	 * spliced out of the tree
+	 * 
+	 * @param x
+	 *            the lowest node whose subtree has changed
+	 */
+	private void updateSizes(TreeNode x)
+	{
+		while (x != RBTree.nullNode)
+		{
+			x.size = x.left.size + x.right.size + 1;
+			x = x.p;
 		}
-		return orderedPages[0];
 	}
 
 
@@ -65,12 +600,10 @@ public class RBTree
 	 * Pivots around the link from x to y. Makes y the new root of the subtree with
 	 * x as y's left child and y's left child as x's right child
 	 * 
-	 * @param T
-	 *            red black tree
 	 * @param x
 	 *            root of the subtree
 	 */
-	private static void leftRotate(RBTree T, TreeNode x)
+	private void leftRotate(TreeNode x)
 	{
 		TreeNode y = x.right;
 		x.right = y.left;
@@ -81,7 +614,7 @@ public class RBTree
 		y.p = x.p;
 		if (x.p == RBTree.nullNode)
 		{
-			T.root = y;
+			this.root = y;
 		}
 		else if (x == x.p.left)
 		{
@@ -93,6 +626,8 @@ public class RBTree
 		}
 		y.left = x;
 		x.p = y;
+		y.size = x.size;
+		x.size = x.left.size + x.right.size + 1;
 	}
 
 
@@ -100,12 +635,10 @@ public class RBTree
 	 * Pivots around the link from x to y. Makes y the new root of the subtree with
 	 * x as y's right child and y's right child as x's left child
 	 * 
-	 * @param T
-	 *            red black tree
 	 * @param x
 	 *            root of the subtree
 	 */
-	private static void rightRotate(RBTree T, TreeNode x)
+	private void rightRotate(TreeNode x)
 	{
 		TreeNode y = x.left;
 		x.left = y.right;
@@ -116,40 +649,281 @@ public class RBTree
 		y.p = x.p;
 		if (x.p == RBTree.nullNode)
 		{
-			T.root = y;
+			this.root = y;
 		}
 		else if (x == x.p.right)
 		{
-			x.p.right = y;
+			x.p.right = y;
+		}
+		else
+		{
+			x.p.left = y;
+		}
+		y.right = x;
+		x.p = y;
+		y.size = x.size;
+		x.size = x.left.size + x.right.size + 1;
+	}
+
+
+	/**
+	 * Insert new node into the tree
+	 * 
+	 * @param page
+	 *            data to be inserted
+	 */
+	public void rbInsert(WebPage page)
+	{
+		this.insertNode(new TreeNode(page)); // Create a node for our webpage
+	}
+
+
+	/**
+	 * Insert a node that is not in the tree at the position of its key
+	 * 
+	 * @param z
+	 *            node to insert, its key is the score of its web page
+	 */
+	private void insertNode(TreeNode z)
+	{
+		TreeNode y = RBTree.nullNode;
+		TreeNode x = this.root;
+
+		while (x != RBTree.nullNode)
+		{
+			y = x;
+			y.size++; // z will be inserted into the subtree of y
+			if (RBTree.compare(z.key, z.data.getId(), x) < 0)
+			{
+				x = x.left;
+			}
+			else
+			{
+				x = x.right;
+			}
+		}
+		z.p = y;
+		if (y == RBTree.nullNode)
+		{
+			this.root = z;
+		}
+		else if (RBTree.compare(z.key, z.data.getId(), y) < 0)
+		{
+			y.left = z;
+		}
+		else
+		{
+			y.right = z;
+		}
+		z.left = RBTree.nullNode;
+		z.right = RBTree.nullNode;
+		z.size = 1;
+		z.color = Color.RED;
+		this.size++;
+		this.rbInsertFixup(z);
+	}
+
+
+	/**
+	 * Fixes violations of Red-Black Tree properties
+	 * 
+	 * @param z
+	 *            node that was inserted, initially colored Red
+	 */
+	private void rbInsertFixup(TreeNode z)
+	{
+		TreeNode y;
+		// z.p is red, so it is not the root and z.p.p is a real node
+		while (z.p.color == Color.RED)
+		{
+			if (z.p == z.p.p.left)
+			{
+				y = z.p.p.right;
+				if (y.color == Color.RED)
+				{
+					z.p.color = Color.BLACK;
+					y.color = Color.BLACK;
+					z.p.p.color = Color.RED;
+					z = z.p.p;
+				}
+				else
+				{
+					if (z == z.p.right)
+					{
+						z = z.p;
+						this.leftRotate(z);
+					}
+					z.p.color = Color.BLACK;
+					z.p.p.color = Color.RED;
+					this.rightRotate(z.p.p);
+				}
+			}
+			else
+			{
+				y = z.p.p.left;
+				if (y.color == Color.RED)
+				{
+					z.p.color = Color.BLACK;
+					y.color = Color.BLACK;
+					z.p.p.color = Color.RED;
+					z = z.p.p;
+				}
+				else
+				{
+					if (z == z.p.left)
+					{
+						z = z.p;
+						this.rightRotate(z);
+					}
+					z.p.color = Color.BLACK;
+					z.p.p.color = Color.RED;
+					this.leftRotate(z.p.p);
+				}
+			}
+		}
+		this.root.color = Color.BLACK;
+	}
+
+
+	/**
+	 * Walk to the left-child, root node, right child such that it finds elements of
+	 * BST in ascending order.
+	 * 
+	 * @return elements of BST in ascending order
+	 */
+	public WebPage[] inOrderTreeWalk()
+	{
+		WebPage[] sortedPages = new WebPage[this.size];
+		TreeNode[] stack = this.newWalkStack();
+		int top = 0;
+		int i = 0;
+		TreeNode x = this.root;
+		while (x != RBTree.nullNode || top > 0)
+		{
+			while (x != RBTree.nullNode)
+			{
+				stack[top++] = x;
+				x = x.left;
+			}
+			x = stack[--top];
+			sortedPages[i++] = x.data;
+			x = x.right;
+		}
+		return sortedPages;
+	}
+
+
+	/**
+	 * Pass elements of BST to the consumer in ascending order. Walks iteratively,
+	 * so apart from a stack of tree height no buffers are allocated.
+	 * 
+	 * @param action
+	 *            consumer that receives every web page
+	 */
+	public void inOrderTreeWalk(Consumer<WebPage> action)
+	{
+		TreeNode[] stack = this.newWalkStack();
+		int top = 0;
+		TreeNode x = this.root;
+		while (x != RBTree.nullNode || top > 0)
+		{
+			while (x != RBTree.nullNode)
+			{
+				stack[top++] = x;
+				x = x.left;
+			}
+			x = stack[--top];
+			action.accept(x.data);
+			x = x.right;
+		}
+	}
+
+
+	/**
+	 * Allocate a stack big enough for any root to leaf path. Height of a red black
+	 * tree is at most 2 * log(n + 1)
+	 * 
+	 * @return empty stack for an iterative walk
+	 */
+	private TreeNode[] newWalkStack()
+	{
+		return new TreeNode[2 * (32 - Integer.numberOfLeadingZeros(this.size + 1))];
+	}
+
+
+	/**
+	 * Web pages with the k biggest scores in descending order. Walks from the
+	 * maximum through predecessors, so only O(log n + k) nodes are visited.
+	 * 
+	 * @param k
+	 *            number of pages to return
+	 * @return at most k pages, the page with the biggest score first
+	 */
+	public WebPage[] topK(int k)
+	{
+		return this.page(0, k);
+	}
+
+
+	/**
+	 * One page of results in descending order of score. Finds the first element by
+	 * rank and then walks through predecessors, so only O(log n + limit) nodes are
+	 * visited.
+	 * 
+	 * @param offset
+	 *            number of top results to skip
+	 * @param limit
+	 *            maximum number of results to return
+	 * @return at most limit pages starting from rank offset + 1
+	 */
+	public WebPage[] page(int offset, int limit)
+	{
+		if (offset < 0 || limit <= 0 || offset >= this.size)
+		{
+			return new WebPage[0];
 		}
-		else
+		WebPage[] pages = new WebPage[Math.min(limit, this.size - offset)];
+		Iterator<WebPage> iterator = new DescendingIterator(this.select(this.size - offset));
+		for (int i = 0; i < pages.length; i++)
 		{
-			x.p.left = y;
+			pages[i] = iterator.next();
 		}
-		y.right = x;
-		x.p = y;
+		return pages;
 	}
 
 
 	/**
-	 * Insert new node into tree T
+	 * Lazy iterator over web pages from the biggest score to the smallest. The tree
+	 * must not be modified while iterating.
 	 * 
-	 * @param T
-	 *            reference to Red Black Tree
-	 * @param z
-	 *            data to be inserted
+	 * @return iterator in descending order of score
 	 */
-	public static void rbInsert(RBTree T, WebPage page)
+	public Iterator<WebPage> descendingIterator()
 	{
-		TreeNode z = new TreeNode(page); // Create a node for our webpage
-		TreeNode y = RBTree.nullNode;
-		TreeNode x = T.root;
+		return new DescendingIterator(this.treeMaximum(this.root));
+	}
 
+
+	/**
+	 * Lazy iterator over the web pages whose score lies in a range, in ascending
+	 * order of score. Finding the first page takes O(log n), every further page
+	 * amortized O(1). The tree must not be modified while iterating.
+	 * 
+	 * @param lo
+	 *            smallest score to return
+	 * @param hi
+	 *            biggest score to return
+	 * @return iterator over the pages with lo <= score <= hi
+	 */
+	public Iterator<WebPage> rangeQuery(int lo, int hi)
+	{
+		TreeNode x = this.root;
+		TreeNode first = RBTree.nullNode;
 		while (x != RBTree.nullNode)
 		{
-			y = x;
-			if (z.key < x.key)
+			if (x.key >= lo)
 			{
+				first = x;
 				x = x.left;
 			}
 			else
@@ -157,147 +931,125 @@ public class RBTree
 				x = x.right;
 			}
 		}
-		z.p = y;
-		if (y == RBTree.nullNode)
+		return new AscendingIterator(first, hi);
+	}
+
+
+	/**
+	 * Iterator that walks from a node to its successors using parent links and
+	 * stops after the last node with a score of at most hi
+	 */
+	private class AscendingIterator implements Iterator<WebPage>
+	{
+		private TreeNode next;
+		private final int hi;
+
+
+		AscendingIterator(TreeNode start, int hi)
 		{
-			T.root = z;
+			this.hi = hi;
+			this.next = start;
 		}
-		else if (z.key < y.key)
+
+
+		@Override
+		public boolean hasNext()
 		{
-			y.left = z;
+			return this.next != RBTree.nullNode && this.next.key <= this.hi;
 		}
-		else
+
+
+		@Override
+		public WebPage next()
 		{
-			y.right = z;
+			if (!this.hasNext())
+			{
+				throw new NoSuchElementException();
+			}
+			TreeNode x = this.next;
+			this.next = treeSuccessor(x);
+			return x.data;
 		}
-		z.left = RBTree.nullNode;
-		z.right = RBTree.nullNode;
-		z.color = Color.RED;
-		T.size++;
-		rbInsertFixup(T, z);
 	}
 
 
 	/**
-	 * Fixes violations of Red-Black Tree properties
-	 * 
-	 * @param T
-	 *            red black tree
-	 * @param z
-	 *            node that was inserted, initially colored Red
+	 * Iterator that walks from a node to its predecessors using parent links
 	 */
-	private static void rbInsertFixup(RBTree T, TreeNode z)
+	private class DescendingIterator implements Iterator<WebPage>
 	{
-		TreeNode y;
-		while (z.p.color == Color.RED)
+		private TreeNode next;
+
+
+		DescendingIterator(TreeNode start)
 		{
-			// TODO: Remove
-			if (z.p == RBTree.nullNode)
-			{
-				System.out.println("ERROR!!!!!!!!!!1111   Should not get null node here");
-			}
-			// Up to here
+			this.next = start;
+		}
 
-			// z.p is not nullNode here
-			// z.p.p can be anything, even a nullNode
 
-			if (z.p == z.p.p.left)
-			{
+		@Override
+		public boolean hasNext()
+		{
+			return this.next != RBTree.nullNode;
+		}
 
-				y = z.p.p.right;
-				if (y.color == Color.RED)
-				{
-					z.p.color = Color.BLACK;
-					y.color = Color.BLACK;
-					z.p.p.color = Color.RED;
-					z = z.p.p;
-				}
-				else
-				{
-					if (z == z.p.right)
-					{
-						z = z.p;
-						leftRotate(T, z);
-					}
-					z.p.color = Color.BLACK;
-					// System.out.println(z.key + " ," + z.p.key);
-					// if (z.p.p != RBTree.nullNode && z.p.p != null)
-					// {
-					z.p.p.color = Color.RED;
-					rightRotate(T, z.p.p);
-					// }
 
-					if (z.p.p == RBTree.nullNode)
-					{
-						System.out.println("z.p.p is nullNode and we are reddening it O_o");
-						System.out.println(z.p.p.color);
-					}
-				}
-			}
-			else
+		@Override
+		public WebPage next()
+		{
+			if (this.next == RBTree.nullNode)
 			{
-				y = z.p.p.left;
-				if (y.color == Color.RED)
-				{
-					z.p.color = Color.BLACK;
-					y.color = Color.BLACK;
-					z.p.p.color = Color.RED;
-					z = z.p.p;
-				}
-				else
-				{
-					if (z == z.p.left)
-					{
-						z = z.p;
-						rightRotate(T, z);
-					}
-					z.p.color = Color.BLACK;
-					// System.out.println(z.key + " ," + z.p.key);
-					// if (z.p.p != RBTree.nullNode && z.p.p != null)
-					// {
-					z.p.p.color = Color.RED;
-
-					leftRotate(T, z.p.p);
-					// }
-					if (z.p.p == RBTree.nullNode)
-					{
-						System.out.println("z.p.p is nullNode and we are reddening it O_o");
-					}
-				}
+				throw new NoSuchElementException();
 			}
+			TreeNode x = this.next;
+			this.next = treePredecessor(x);
+			return x.data;
 		}
-		T.root.color = Color.BLACK;
 	}
 
 
 	/**
-	 * Walk to the left-child, root node, right child such that it finds elements of
-	 * BST in ascending order.
+	 * Find a predecessor, node with maximum value that is smaller than key of x
+	 * node
 	 * 
-	 * @return elements of BST in ascending order
+	 * @param x
+	 *            node for which we need to find a predecessor
+	 * @return predecessor node, nullNode if x has the minimum key
 	 */
-	public WebPage[] inOrderTreeWalk()
+	private TreeNode treePredecessor(TreeNode x)
 	{
-		ArrayList<WebPage> pages = new ArrayList<>();
-		WebPage[] sortedPages = new WebPage[this.size];
-		inOrderTreeWalk(this.root, pages);
-		for (int i = 0; i < pages.size(); i++)
+		if (x.left != RBTree.nullNode)
 		{
-			sortedPages[i] = pages.get(i);
+			return this.treeMaximum(x.left);
 		}
-		return sortedPages;
+		TreeNode y = x.p;
+		while (y != RBTree.nullNode && x == y.left)
+		{
+			x = y;
+			y = y.p;
+		}
+		return y;
 	}
 
 
-	private void inOrderTreeWalk(TreeNode x, ArrayList<WebPage> pages)
+	/**
+	 * Finds an element whose key is a maximum in the subtree rooted at a node x
+	 * 
+	 * @param x
+	 *            root of the subtree
+	 * @return the node with maximum key, nullNode if the subtree is empty
+	 */
+	public TreeNode treeMaximum(TreeNode x)
 	{
-		if (x != RBTree.nullNode)
+		if (x == RBTree.nullNode)
+		{
+			return x;
+		}
+		while (x.right != RBTree.nullNode)
 		{
-			inOrderTreeWalk(x.left, pages);
-			x.data.color = x.color;
-			pages.add(x.data);
-			inOrderTreeWalk(x.right, pages);
+			x = x.right;
 		}
+		return x;
 	}
 
 
@@ -306,16 +1058,16 @@ public class RBTree
 	 * 
 	 * @param x
 	 *            node for which we need to find a successor
-	 * @return successor node
+	 * @return successor node, nullNode if x has the maximum key
 	 */
 	private TreeNode treeSuccessor(TreeNode x)
 	{
-		if (x.right != null)
+		if (x.right != RBTree.nullNode)
 		{
-			return treeMinumum(x);
+			return this.treeMinumum(x.right);
 		}
 		TreeNode y = x.p;
-		while (y != null && x == y.right)
+		while (y != RBTree.nullNode && x == y.right)
 		{
 			x = y;
 			y = y.p;
@@ -326,15 +1078,19 @@ public class RBTree
 
 	/**
 	 * Finds an element in a binary search tree whose key is a minimum by in the
-	 * subtree rooted at a node x. We assume that x != null
+	 * subtree rooted at a node x.
 	 * 
 	 * @param x
 	 *            root of the subtree
-	 * @return the node with minimum key
+	 * @return the node with minimum key, nullNode if the subtree is empty
 	 */
 	public TreeNode treeMinumum(TreeNode x)
 	{
-		while (x.left != null && x.left.key != 0)
+		if (x == RBTree.nullNode)
+		{
+			return x;
+		}
+		while (x.left != RBTree.nullNode)
 		{
 			x = x.left;
 		}
@@ -343,20 +1099,20 @@ public class RBTree
 
 
 	/**
-	 * Replaces one subtree as a child of its parent with another subtree
+	 * Replaces one subtree as a child of its parent with another subtree. The
+	 * shared nullNode is never written, so the caller keeps track of the parent
+	 * when v is nullNode.
 	 * 
-	 * @param T
-	 *            binary search tree that will be mutated
 	 * @param u
 	 *            the root of the subtree that will be replaced
 	 * @param v
 	 *            the root of the subtree that will replace u
 	 */
-	public static void rbTransplant(RBTree T, TreeNode u, TreeNode v)
+	private void rbTransplant(TreeNode u, TreeNode v)
 	{
 		if (u.p == RBTree.nullNode)
 		{
-			T.root = v;
+			this.root = v;
 		}
 		else if (u == u.p.left)
 		{
@@ -366,118 +1122,139 @@ public class RBTree
 		{
 			u.p.right = v;
 		}
-
-		v.p = u.p;
-
+		if (v != RBTree.nullNode)
+		{
+			v.p = u.p;
+		}
 	}
 
 
 	/**
-	 * Delete node from RBTree
+	 * Delete node from the tree
 	 * 
-	 * @param T
-	 *            tree from which node will be deleted
 	 * @param z
 	 *            node to delete
 	 */
-	public static void rbDelete(RBTree T, TreeNode z)
+	public void rbDelete(TreeNode z)
 	{
-		if (z == null)
+		if (z == null || z == RBTree.nullNode)
 		{
 			return;
 		}
-		T.size--;
+		if (z.data.node == z)
+		{
+			z.data.node = null;
+		}
+		this.size--;
 		TreeNode y = z;
 		Color yOriginalColor = y.color;
 		TreeNode x;
+		TreeNode xParent; // x may be nullNode, whose parent link is never set
 		if (z.left == RBTree.nullNode)
 		{
 			x = z.right;
-			rbTransplant(T, z, z.right);
+			xParent = z.p;
+			this.rbTransplant(z, z.right);
 		}
 		else if (z.right == RBTree.nullNode)
 		{
 			x = z.left;
-			rbTransplant(T, z, z.left);
+			xParent = z.p;
+			this.rbTransplant(z, z.left);
 		}
 		else
 		{
-			y = T.treeMinumum(z.right);
+			y = this.treeMinumum(z.right);
 			yOriginalColor = y.color;
 			x = y.right;
 			if (y.p == z)
 			{
-				x.p = y;
+				xParent = y;
 			}
 			else
 			{
-				rbTransplant(T, y, y.right);
+				xParent = y.p;
+				this.rbTransplant(y, y.right);
 				y.right = z.right;
 				y.right.p = y;
 			}
-			rbTransplant(T, z, y);
+			this.rbTransplant(z, y);
 			y.left = z.left;
 			y.left.p = y;
 			y.color = z.color;
 		}
+		this.updateSizes(xParent);
 		if (yOriginalColor == Color.BLACK)
 		{
-			rbDeleteFixup(T, x);
+			this.rbDeleteFixup(x, xParent);
 		}
+		// Detach z, so that rankOf() of a deleted node fails instead of walking
+		// into the tree
+		z.p = RBTree.nullNode;
+		z.left = RBTree.nullNode;
+		z.right = RBTree.nullNode;
 	}
 
 
-	public static void rbDeleteFixup(RBTree T, TreeNode x)
+	/**
+	 * Restores Red-Black Tree properties after a black node was removed
+	 * 
+	 * @param x
+	 *            node that carries the extra black, possibly nullNode
+	 * @param xParent
+	 *            parent of x
+	 */
+	private void rbDeleteFixup(TreeNode x, TreeNode xParent)
 	{
-		while (x != T.root && x.color == Color.BLACK)
+		while (x != this.root && x.color == Color.BLACK)
 		{
-			if (x == x.p.left)
+			if (x == xParent.left)
 			{
-				TreeNode w = x.p.right;
+				TreeNode w = xParent.right;
 				if (w.color == Color.RED)
 				{
 					w.color = Color.BLACK;
-					x.p.color = Color.RED;
-					leftRotate(T, x.p);
-					w = x.p.right;
+					xParent.color = Color.RED;
+					this.leftRotate(xParent);
+					w = xParent.right;
 				}
 				if (w.left.color == Color.BLACK && w.right.color == Color.BLACK)
 				{
 					w.color = Color.RED;
-					x = x.p;
+					x = xParent;
+					xParent = x.p;
 				}
 				else
 				{
 					if (w.right.color == Color.BLACK)
 					{
-
 						w.left.color = Color.BLACK;
 						w.color = Color.RED;
-						rightRotate(T, w);
-						w = x.p.right;
+						this.rightRotate(w);
+						w = xParent.right;
 					}
-
-					w.color = x.p.color;
-					x.p.color = Color.BLACK;
+					w.color = xParent.color;
+					xParent.color = Color.BLACK;
 					w.right.color = Color.BLACK;
-					leftRotate(T, x.p);
-					x = T.root;
+					this.leftRotate(xParent);
+					x = this.root;
 				}
 			}
 			else
 			{
-				TreeNode w = x.p.left;
+				TreeNode w = xParent.left;
 				if (w.color == Color.RED)
 				{
 					w.color = Color.BLACK;
-					x.p.color = Color.RED;
-					rightRotate(T, x.p);
-					w = x.p.left;
+					xParent.color = Color.RED;
+					this.rightRotate(xParent);
+					w = xParent.left;
 				}
 				if (w.left.color == Color.BLACK && w.right.color == Color.BLACK)
 				{
 					w.color = Color.RED;
-					x = x.p;
+					x = xParent;
+					xParent = x.p;
 				}
 				else
 				{
@@ -485,18 +1262,21 @@ public class RBTree
 					{
 						w.right.color = Color.BLACK;
 						w.color = Color.RED;
-						leftRotate(T, w);
-						w = x.p.left;
+						this.leftRotate(w);
+						w = xParent.left;
 					}
-					w.color = x.p.color;
-					x.p.color = Color.BLACK;
+					w.color = xParent.color;
+					xParent.color = Color.BLACK;
 					w.left.color = Color.BLACK;
-					rightRotate(T, x.p);
-					x = T.root;
+					this.rightRotate(xParent);
+					x = this.root;
 				}
 			}
 		}
-		x.color = Color.BLACK;
+		if (x != RBTree.nullNode)
+		{
+			x.color = Color.BLACK;
+		}
 	}
 
 
@@ -505,37 +1285,276 @@ public class RBTree
 	 * 
 	 * @param k
 	 *            score of the web page
-	 * @return the first node with specified score, null if there is no such element
+	 * @return the first node with specified score, the one with the smallest id if
+	 *         several pages share it, null if there is no such element
 	 */
 	public TreeNode treeSearch(int k)
 	{
-		System.out.println(this.treeSearch(this.root, k));
-		return this.treeSearch(this.root, k);
+		TreeNode x = this.root;
+		TreeNode found = null;
+		while (x != RBTree.nullNode)
+		{
+			if (k <= x.key)
+			{
+				if (k == x.key)
+				{
+					found = x;
+				}
+				x = x.left;
+			}
+			else
+			{
+				x = x.right;
+			}
+		}
+		return found;
+	}
+
+
+	/**
+	 * Finds the node that holds a specific web page
+	 * 
+	 * @param page
+	 *            web page to look for
+	 * @return node of the page, null if the page is not in the tree
+	 */
+	public TreeNode treeSearch(WebPage page)
+	{
+		return this.treeSearch(page.getScore(), page.getId());
 	}
 
 
 	/**
-	 * Subroutine to find a node with specific webpage score
+	 * Finds the node with a specific score and page id
 	 * 
-	 * @param x
-	 *            the root of the subtree where we are looking for a node
-	 * @param k
+	 * @param score
 	 *            score of the web page
-	 * @return the first node with specified score, null if there is no such element
+	 * @param id
+	 *            id of the web page
+	 * @return node of the page, null if the page is not in the tree
 	 */
-	private TreeNode treeSearch(TreeNode x, int k)
+	public TreeNode treeSearch(int score, int id)
 	{
-		if (x == RBTree.nullNode || k == x.key)
+		TreeNode x = this.root;
+		while (x != RBTree.nullNode)
 		{
-			return x;
+			int c = RBTree.compare(score, id, x);
+			if (c == 0)
+			{
+				return x;
+			}
+			x = c < 0 ? x.left : x.right;
+		}
+		return null;
+	}
+
+
+	/**
+	 * Finds all web pages with specific score. Runs in O(log n + matches)
+	 * 
+	 * @param k
+	 *            score of the web pages
+	 * @return pages with the score in ascending order of id
+	 */
+	public WebPage[] findAll(int k)
+	{
+		WebPage[] pages = new WebPage[this.countRange(k, k)];
+		TreeNode x = this.treeSearch(k);
+		for (int i = 0; i < pages.length; i++)
+		{
+			pages[i] = x.data;
+			x = this.treeSuccessor(x);
+		}
+		return pages;
+	}
+
+
+	/**
+	 * Delete a web page from the tree
+	 * 
+	 * @param page
+	 *            web page to delete
+	 * @return true if the page was found and deleted
+	 */
+	public boolean delete(WebPage page)
+	{
+		TreeNode node = this.nodeOf(page);
+		this.rbDelete(node);
+		return node != null;
+	}
+
+
+	/**
+	 * Change the features of a web page in the tree and move it to the position of
+	 * its new score. The node is reached through the handle of the page, without a
+	 * search. If the new key still lies between the keys of its neighbours only
+	 * the key is changed, otherwise the node is deleted and inserted again. Runs
+	 * in O(log n).
+	 * 
+	 * @param page
+	 *            web page in the tree
+	 * @param wordFrequency
+	 *            new frequency of keyword
+	 * @param daysExisted
+	 *            new number of days the page exists
+	 * @param numberOfLinks
+	 *            new number of pages that refer to the page
+	 * @param adMoney
+	 *            new amount of money payed to promote the page
+	 * @return score of the page before the update
+	 * @throws NoSuchElementException
+	 *             if the page is not in the tree
+	 */
+	public int updateScore(WebPage page, int wordFrequency, int daysExisted, int numberOfLinks, int adMoney)
+	{
+		TreeNode z = this.nodeOf(page);
+		if (z == null)
+		{
+			throw new NoSuchElementException("Web page is not in the tree: " + page.getLink());
+		}
+		return this.updateScore(z, wordFrequency, daysExisted, numberOfLinks, adMoney);
+	}
+
+
+	/**
+	 * Change the features of the web page of a node and move the node to the
+	 * position of its new score
+	 * 
+	 * @param z
+	 *            node in the tree
+	 * @return score of the page before the update
+	 */
+	int updateScore(TreeNode z, int wordFrequency, int daysExisted, int numberOfLinks, int adMoney)
+	{
+		WebPage page = z.data;
+		int oldScore = z.key;
+		page.setFeatures(wordFrequency, daysExisted, numberOfLinks, adMoney);
+		int score = page.getScore();
+		if (score == oldScore)
+		{
+			return oldScore;
+		}
+		// Only the neighbour on the side the key moves to can end up out of order
+		boolean inPlace;
+		if (score > oldScore)
+		{
+			TreeNode successor = this.treeSuccessor(z);
+			inPlace = successor == RBTree.nullNode || RBTree.compare(score, page.getId(), successor) < 0;
+		}
+		else
+		{
+			TreeNode predecessor = this.treePredecessor(z);
+			inPlace = predecessor == RBTree.nullNode || RBTree.compare(score, page.getId(), predecessor) > 0;
 		}
-		if (k < x.key)
+		if (inPlace)
 		{
-			return treeSearch(x.left, k);
+			z.key = score;
 		}
 		else
 		{
-			return treeSearch(x.right, k);
+			this.rbDelete(z);
+			z.key = score;
+			page.node = z;
+			this.insertNode(z);
+		}
+		return oldScore;
+	}
+
+
+	/**
+	 * Node of a web page in this tree. Uses the handle of the page if it belongs
+	 * to this tree, a page that was moved to another tree since is searched for.
+	 * 
+	 * @param page
+	 *            web page to look for
+	 * @return node of the page, null if the page is not in the tree
+	 */
+	TreeNode nodeOf(WebPage page)
+	{
+		TreeNode z = page.node;
+		if (z != null && z.data == page)
+		{
+			TreeNode top = z;
+			while (top.p != RBTree.nullNode)
+			{
+				top = top.p;
+			}
+			if (top == this.root)
+			{
+				return z;
+			}
+		}
+		return this.treeSearch(page);
+	}
+
+
+	/**
+	 * Number of web pages whose score lies in a range. Uses subtree sizes and runs
+	 * in O(log n) however many pages are in the range.
+	 * 
+	 * @param lo
+	 *            smallest score to count
+	 * @param hi
+	 *            biggest score to count
+	 * @return number of pages with lo <= score <= hi
+	 */
+	public int countRange(int lo, int hi)
+	{
+		if (lo > hi)
+		{
+			return 0;
+		}
+		// hi + 1 would overflow for the biggest score, every page is below it
+		int countAtMost = hi == Integer.MAX_VALUE ? this.size : this.countLess(hi + 1);
+		return countAtMost - this.countLess(lo);
+	}
+
+
+	/**
+	 * Number of pages whose score is smaller than k, using subtree sizes
+	 * 
+	 * @param k
+	 *            score to compare with
+	 * @return number of pages with score below k
+	 */
+	private int countLess(int k)
+	{
+		int count = 0;
+		TreeNode x = this.root;
+		while (x != RBTree.nullNode)
+		{
+			if (x.key < k)
+			{
+				count = count + x.left.size + 1;
+				x = x.right;
+			}
+			else
+			{
+				x = x.left;
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 * Compare a (score, id) key with the key of node x. Pages are ordered by score,
+	 * pages with equal score by id.
+	 * 
+	 * @param key
+	 *            score of the page
+	 * @param id
+	 *            id of the page
+	 * @param x
+	 *            node to compare with
+	 * @return negative, zero or positive if the key comes before, at or after x
+	 */
+	private static int compare(int key, int id, TreeNode x)
+	{
+		if (key != x.key)
+		{
+			return key < x.key ? -1 : 1;
 		}
+		return Integer.compare(id, x.data.getId());
 	}
 }
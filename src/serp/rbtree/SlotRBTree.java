@@ -0,0 +1,575 @@
+package serp.rbtree;
+
+import serp.WebPage;
+
+/**
+ * Red Black Tree whose nodes are int slots in some storage rather than TreeNode
+ * objects. Subclasses decide where keys, links, colors and pages live, this
+ * class holds the tree algorithms. Slot 0 is the sentinel, freed slots are
+ * reused through a free list threaded through the right links. Slots have no
+ * parent link: inserts and deletes keep the path from the root in a stack and
+ * the fix-ups walk up that stack.
+ */
+public abstract class SlotRBTree
+{
+	protected static final int NIL = 0;
+	// A red black tree of n < 2^32 nodes is at most 64 levels high, the delete
+	// fix-up may push one more ancestor while it rotates
+	private static final int MAX_PATH = 66;
+
+	protected int root = NIL;
+	protected int size = 0;
+	protected int freeList = NIL; // first reusable slot
+	protected int nextSlot = 1; // first slot never used so far
+	private final int[] path = new int[MAX_PATH]; // ancestors of the node being fixed, root first
+
+
+	/**
+	 * Score of the page in slot x
+	 */
+	protected abstract int key(int x);
+
+
+	/**
+	 * Id of the page in slot x
+	 */
+	protected abstract int id(int x);
+
+
+	protected abstract int left(int x);
+
+
+	protected abstract int right(int x);
+
+
+	protected abstract boolean isRed(int x);
+
+
+	protected abstract void setLeft(int x, int y);
+
+
+	protected abstract void setRight(int x, int y);
+
+
+	protected abstract void setRed(int x, boolean red);
+
+
+	/**
+	 * Web page held in slot x
+	 */
+	protected abstract WebPage page(int x);
+
+
+	/**
+	 * Write key, id and data of a page into slot x
+	 */
+	protected abstract void store(int x, WebPage page);
+
+
+	/**
+	 * Drop the data of a slot that was removed from the tree
+	 */
+	protected abstract void erase(int x);
+
+
+	/**
+	 * Make sure slots below the given number can be used
+	 */
+	protected abstract void ensureCapacity(int slots);
+
+
+	/**
+	 * Called before an insert changes anything. Subclasses throw if the page
+	 * cannot be stored, so a failed insert leaves the tree as it was.
+	 */
+	protected void checkStorable(WebPage page)
+	{
+		this.checkWritable();
+	}
+
+
+	/**
+	 * Called before an insert or delete changes anything. Subclasses throw if the
+	 * storage cannot be written.
+	 */
+	protected void checkWritable()
+	{
+	}
+
+
+	/**
+	 * Called after every insert and delete so that subclasses can save root, size
+	 * and free list
+	 */
+	protected void stateChanged()
+	{
+	}
+
+
+	/**
+	 * Accessor for the number of elements in the tree
+	 * 
+	 * @return number of web pages stored in the tree
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+
+	/**
+	 * Insert new web page into the tree
+	 * 
+	 * @param page
+	 *            data to be inserted
+	 */
+	public void rbInsert(WebPage page)
+	{
+		this.checkStorable(page);
+		int z = this.allocate(page);
+		int depth = 0;
+		int x = this.root;
+		while (x != NIL)
+		{
+			this.path[depth++] = x;
+			x = this.compare(this.key(z), this.id(z), x) < 0 ? this.left(x) : this.right(x);
+		}
+		if (depth == 0)
+		{
+			this.root = z;
+		}
+		else if (this.compare(this.key(z), this.id(z), this.path[depth - 1]) < 0)
+		{
+			this.setLeft(this.path[depth - 1], z);
+		}
+		else
+		{
+			this.setRight(this.path[depth - 1], z);
+		}
+		this.setRed(z, true);
+		this.size++;
+		this.rbInsertFixup(z, depth);
+		this.stateChanged();
+	}
+
+
+	/**
+	 * Delete a web page from the tree
+	 * 
+	 * @param page
+	 *            web page to delete
+	 * @return true if the page was found and deleted
+	 */
+	public boolean delete(WebPage page)
+	{
+		int depth = 0;
+		int z = this.root;
+		while (z != NIL)
+		{
+			int c = this.compare(page.getScore(), page.getId(), z);
+			if (c == 0)
+			{
+				break;
+			}
+			this.path[depth++] = z;
+			z = c < 0 ? this.left(z) : this.right(z);
+		}
+		if (z == NIL)
+		{
+			return false;
+		}
+		this.checkWritable();
+		this.rbDelete(z, depth);
+		this.release(z);
+		this.stateChanged();
+		return true;
+	}
+
+
+	/**
+	 * Finds a web page with specific score
+	 * 
+	 * @param k
+	 *            score of the web page
+	 * @return the first page with specified score, null if there is no such page
+	 */
+	public WebPage treeSearch(int k)
+	{
+		int x = this.root;
+		int found = NIL;
+		while (x != NIL)
+		{
+			if (k <= this.key(x))
+			{
+				if (k == this.key(x))
+				{
+					found = x;
+				}
+				x = this.left(x);
+			}
+			else
+			{
+				x = this.right(x);
+			}
+		}
+		return found == NIL ? null : this.page(found);
+	}
+
+
+	/**
+	 * Web pages in ascending order of score
+	 * 
+	 * @return elements of the tree in ascending order
+	 */
+	public WebPage[] inOrderTreeWalk()
+	{
+		WebPage[] sortedPages = new WebPage[this.size];
+		int[] stack = new int[MAX_PATH];
+		int top = 0;
+		int x = this.root;
+		for (int i = 0; i < sortedPages.length; i++)
+		{
+			while (x != NIL)
+			{
+				stack[top++] = x;
+				x = this.left(x);
+			}
+			x = stack[--top];
+			sortedPages[i] = this.page(x);
+			sortedPages[i].color = this.colorOf(x);
+			x = this.right(x);
+		}
+		return sortedPages;
+	}
+
+
+	/**
+	 * Web pages with the k biggest scores in descending order
+	 * 
+	 * @param k
+	 *            number of pages to return
+	 * @return at most k pages, the page with the biggest score first
+	 */
+	public WebPage[] topK(int k)
+	{
+		WebPage[] topPages = new WebPage[Math.max(0, Math.min(k, this.size))];
+		int[] stack = new int[MAX_PATH];
+		int top = 0;
+		int x = this.root;
+		for (int i = 0; i < topPages.length; i++)
+		{
+			while (x != NIL)
+			{
+				stack[top++] = x;
+				x = this.right(x);
+			}
+			x = stack[--top];
+			topPages[i] = this.page(x);
+			topPages[i].color = this.colorOf(x);
+			x = this.left(x);
+		}
+		return topPages;
+	}
+
+
+	/**
+	 * Take a slot from the free list or the unused tail of the storage, growing it
+	 * if needed, and fill it with the page
+	 */
+	private int allocate(WebPage page)
+	{
+		int z;
+		if (this.freeList != NIL)
+		{
+			z = this.freeList;
+			this.freeList = this.right(z);
+		}
+		else
+		{
+			this.ensureCapacity(this.nextSlot + 1);
+			z = this.nextSlot++;
+		}
+		this.store(z, page);
+		this.setLeft(z, NIL);
+		this.setRight(z, NIL);
+		return z;
+	}
+
+
+	/**
+	 * Put a slot that is no longer in the tree on the free list
+	 */
+	private void release(int z)
+	{
+		this.erase(z);
+		this.setRed(z, false);
+		this.setRight(z, this.freeList);
+		this.freeList = z;
+	}
+
+
+	/**
+	 * Compare a (score, id) key with the key of slot x
+	 */
+	private int compare(int score, int id, int x)
+	{
+		if (score != this.key(x))
+		{
+			return score < this.key(x) ? -1 : 1;
+		}
+		return Integer.compare(id, this.id(x));
+	}
+
+
+	private Color colorOf(int x)
+	{
+		return this.isRed(x) ? Color.RED : Color.BLACK;
+	}
+
+
+	/**
+	 * Make v the child of parent that u was, or the root if parent is NIL
+	 */
+	private void replaceChild(int parent, int u, int v)
+	{
+		if (parent == NIL)
+		{
+			this.root = v;
+		}
+		else if (u == this.left(parent))
+		{
+			this.setLeft(parent, v);
+		}
+		else
+		{
+			this.setRight(parent, v);
+		}
+	}
+
+
+	private void leftRotate(int x, int parent)
+	{
+		int y = this.right(x);
+		this.setRight(x, this.left(y));
+		this.setLeft(y, x);
+		this.replaceChild(parent, x, y);
+	}
+
+
+	private void rightRotate(int x, int parent)
+	{
+		int y = this.left(x);
+		this.setLeft(x, this.right(y));
+		this.setRight(y, x);
+		this.replaceChild(parent, x, y);
+	}
+
+
+	/**
+	 * Restore the red black properties after z was inserted
+	 * 
+	 * @param depth
+	 *            number of ancestors of z, which are path[0 .. depth - 1]
+	 */
+	private void rbInsertFixup(int z, int depth)
+	{
+		// The parent is red, so it is not the root and z has a grandparent
+		while (depth > 0 && this.isRed(this.path[depth - 1]))
+		{
+			int zp = this.path[depth - 1];
+			int zpp = this.path[depth - 2];
+			int above = depth > 2 ? this.path[depth - 3] : NIL;
+			if (zp == this.left(zpp))
+			{
+				int y = this.right(zpp);
+				if (this.isRed(y))
+				{
+					this.setRed(zp, false);
+					this.setRed(y, false);
+					this.setRed(zpp, true);
+					z = zpp;
+					depth -= 2;
+				}
+				else
+				{
+					if (z == this.right(zp))
+					{
+						this.leftRotate(zp, zpp);
+						zp = z;
+					}
+					this.setRed(zp, false);
+					this.setRed(zpp, true);
+					this.rightRotate(zpp, above);
+					break;
+				}
+			}
+			else
+			{
+				int y = this.left(zpp);
+				if (this.isRed(y))
+				{
+					this.setRed(zp, false);
+					this.setRed(y, false);
+					this.setRed(zpp, true);
+					z = zpp;
+					depth -= 2;
+				}
+				else
+				{
+					if (z == this.left(zp))
+					{
+						this.rightRotate(zp, zpp);
+						zp = z;
+					}
+					this.setRed(zp, false);
+					this.setRed(zpp, true);
+					this.leftRotate(zpp, above);
+					break;
+				}
+			}
+		}
+		this.setRed(this.root, false);
+	}
+
+
+	/**
+	 * Unlink z from the tree
+	 * 
+	 * @param depth
+	 *            number of ancestors of z, which are path[0 .. depth - 1]
+	 */
+	private void rbDelete(int z, int depth)
+	{
+		this.size--;
+		int parent = depth > 0 ? this.path[depth - 1] : NIL;
+		boolean removedRed;
+		int x;
+		int xDepth;
+		if (this.left(z) == NIL || this.right(z) == NIL)
+		{
+			removedRed = this.isRed(z);
+			x = this.left(z) == NIL ? this.right(z) : this.left(z);
+			this.replaceChild(parent, z, x);
+			xDepth = depth;
+		}
+		else
+		{
+			// The successor y takes the place and color of z, the right child of y
+			// takes the place of y
+			int zDepth = depth;
+			this.path[depth++] = z;
+			int y = this.right(z);
+			while (this.left(y) != NIL)
+			{
+				this.path[depth++] = y;
+				y = this.left(y);
+			}
+			removedRed = this.isRed(y);
+			x = this.right(y);
+			if (this.path[depth - 1] != z)
+			{
+				this.setLeft(this.path[depth - 1], x);
+				this.setRight(y, this.right(z));
+			}
+			this.setLeft(y, this.left(z));
+			this.replaceChild(parent, z, y);
+			this.setRed(y, this.isRed(z));
+			this.path[zDepth] = y;
+			xDepth = depth;
+		}
+		if (!removedRed)
+		{
+			this.rbDeleteFixup(x, xDepth);
+		}
+	}
+
+
+	/**
+	 * Remove the extra black from x, possibly NIL
+	 * 
+	 * @param depth
+	 *            number of ancestors of x, which are path[0 .. depth - 1]
+	 */
+	private void rbDeleteFixup(int x, int depth)
+	{
+		while (depth > 0 && !this.isRed(x))
+		{
+			int xp = this.path[depth - 1];
+			int above = depth > 1 ? this.path[depth - 2] : NIL;
+			if (x == this.left(xp))
+			{
+				int w = this.right(xp);
+				if (this.isRed(w))
+				{
+					this.setRed(w, false);
+					this.setRed(xp, true);
+					this.leftRotate(xp, above);
+					// w is the parent of xp now
+					this.path[depth - 1] = w;
+					this.path[depth++] = xp;
+					above = w;
+					w = this.right(xp);
+				}
+				if (!this.isRed(this.left(w)) && !this.isRed(this.right(w)))
+				{
+					this.setRed(w, true);
+					x = xp;
+					depth--;
+				}
+				else
+				{
+					if (!this.isRed(this.right(w)))
+					{
+						this.setRed(this.left(w), false);
+						this.setRed(w, true);
+						this.rightRotate(w, xp);
+						w = this.right(xp);
+					}
+					this.setRed(w, this.isRed(xp));
+					this.setRed(xp, false);
+					this.setRed(this.right(w), false);
+					this.leftRotate(xp, above);
+					x = this.root;
+					depth = 0;
+				}
+			}
+			else
+			{
+				int w = this.left(xp);
+				if (this.isRed(w))
+				{
+					this.setRed(w, false);
+					this.setRed(xp, true);
+					this.rightRotate(xp, above);
+					this.path[depth - 1] = w;
+					this.path[depth++] = xp;
+					above = w;
+					w = this.left(xp);
+				}
+				if (!this.isRed(this.left(w)) && !this.isRed(this.right(w)))
+				{
+					this.setRed(w, true);
+					x = xp;
+					depth--;
+				}
+				else
+				{
+					if (!this.isRed(this.left(w)))
+					{
+						this.setRed(this.right(w), false);
+						this.setRed(w, true);
+						this.leftRotate(w, xp);
+						w = this.left(xp);
+					}
+					this.setRed(w, this.isRed(xp));
+					this.setRed(xp, false);
+					this.setRed(this.left(w), false);
+					this.rightRotate(xp, above);
+					x = this.root;
+					depth = 0;
+				}
+			}
+		}
+		this.setRed(x, false);
+	}
+}
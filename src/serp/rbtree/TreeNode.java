@@ -3,7 +3,10 @@ package serp.rbtree;
 import serp.WebPage;
 
 /**
- * Simple element of BST. Instance variable key is web page score.
+ * Simple element of BST. Instance variable key is web page score, nodes with
+ * equal keys are ordered by id of the web page. Size is the number of nodes in
+ * the subtree rooted at this node (0 for the sentinel). A new node becomes the
+ * node handle of its web page.
  * 
  * @author msurmenok
  *
@@ -16,6 +19,7 @@ public class TreeNode
 	public TreeNode right;
 	public TreeNode p;
 	public Color color;
+	public int size; // number of nodes in the subtree rooted at this node
 
 
 	public TreeNode(WebPage data)
@@ -29,7 +33,9 @@ public class TreeNode
 		this.key = data.getScore();
 		this.data = data;
 		this.color = Color.BLACK;
+		this.size = 1;
 		this.left = left;
 		this.right = right;
+		data.node = this;
 	}
 }
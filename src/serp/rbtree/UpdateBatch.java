@@ -0,0 +1,333 @@
+package serp.rbtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import serp.WebPage;
+
+/**
+ * Collects inserts, deletes and feature changes of web pages and applies them
+ * to a tree at once. Changes to the same page are coalesced as they are added,
+ * so a burst of updates to a few pages costs one tree operation per page. Small
+ * batches are applied directly, sorting them would cost more than it saves.
+ * Medium batches are applied in order of key, which keeps consecutive
+ * operations on neighbouring nodes. A batch that touches a large part of the
+ * tree is merged with the in-order walk of the tree and the tree is rebuilt in
+ * linear time.
+ */
+public class UpdateBatch
+{
+	// Batches that change more than 1 / REBUILD_FRACTION of the tree rebuild it,
+	// about where rebuilding a 1M page tree got cheaper than single operations
+	private static final int REBUILD_FRACTION = 5;
+	// Batches of at most this many pages are applied without sorting
+	private static final int DIRECT_LIMIT = 4096;
+
+	private final Map<WebPage, Change> changes = new HashMap<WebPage, Change>();
+	private int operations;
+
+
+	/**
+	 * Net effect of all operations on one page
+	 */
+	private static class Change
+	{
+		private final WebPage page;
+		private final boolean wasInTree; // derived from the first operation
+		private boolean inTree;
+		private boolean featuresChanged;
+		private int wordFrequency;
+		private int daysExisted;
+		private int numberOfLinks;
+		private int adMoney;
+		private boolean found; // seen in the tree while rebuilding
+
+
+		private Change(WebPage page, boolean wasInTree)
+		{
+			this.page = page;
+			this.wasInTree = wasInTree;
+			this.inTree = wasInTree;
+		}
+
+
+		private void applyFeatures()
+		{
+			if (this.featuresChanged)
+			{
+				this.page.setFeatures(this.wordFrequency, this.daysExisted, this.numberOfLinks, this.adMoney);
+			}
+		}
+	}
+
+
+	/**
+	 * Add a web page that is not in the tree yet
+	 * 
+	 * @param page
+	 *            page to insert
+	 */
+	public void insert(WebPage page)
+	{
+		this.changeOf(page, false).inTree = true;
+	}
+
+
+	/**
+	 * Remove a web page from the tree
+	 * 
+	 * @param page
+	 *            page to delete
+	 */
+	public void delete(WebPage page)
+	{
+		Change change = this.changeOf(page, true);
+		change.inTree = false;
+		change.featuresChanged = false;
+	}
+
+
+	/**
+	 * Replace the features of a web page. The page keeps its old score until the
+	 * batch is applied.
+	 * 
+	 * @param page
+	 *            page in the tree or inserted by this batch
+	 * @param wordFrequency
+	 *            new frequency of keyword
+	 * @param daysExisted
+	 *            new number of days the page exists
+	 * @param numberOfLinks
+	 *            new number of pages that refer to the page
+	 * @param adMoney
+	 *            new amount of money payed to promote the page
+	 */
+	public void update(WebPage page, int wordFrequency, int daysExisted, int numberOfLinks, int adMoney)
+	{
+		Change change = this.changeOf(page, true);
+		change.featuresChanged = true;
+		change.wordFrequency = wordFrequency;
+		change.daysExisted = daysExisted;
+		change.numberOfLinks = numberOfLinks;
+		change.adMoney = adMoney;
+	}
+
+
+	/**
+	 * Change of a page, created on the first operation on it
+	 */
+	private Change changeOf(WebPage page, boolean wasInTree)
+	{
+		this.operations++;
+		Change change = this.changes.get(page);
+		if (change == null)
+		{
+			change = new Change(page, wasInTree);
+			this.changes.put(page, change);
+		}
+		return change;
+	}
+
+
+	/**
+	 * @return number of operations added since the batch was last applied
+	 */
+	public int operations()
+	{
+		return this.operations;
+	}
+
+
+	/**
+	 * @return number of distinct pages the operations refer to
+	 */
+	public int size()
+	{
+		return this.changes.size();
+	}
+
+
+	/**
+	 * Apply the coalesced changes to a tree and empty the batch. Deletes and
+	 * updates of pages that are not in the tree are skipped.
+	 * 
+	 * @param tree
+	 *            tree to change
+	 * @return number of pages inserted, deleted or moved
+	 */
+	public int applyTo(RBTree tree)
+	{
+		int applied;
+		if ((long) this.changes.size() * REBUILD_FRACTION > tree.size())
+		{
+			applied = this.rebuild(tree);
+		}
+		else if (this.changes.size() <= DIRECT_LIMIT)
+		{
+			applied = this.applyDirectly(tree);
+		}
+		else
+		{
+			applied = this.applyInOrder(tree);
+		}
+		this.changes.clear();
+		this.operations = 0;
+		return applied;
+	}
+
+
+	/**
+	 * Apply the changes one by one in the order of the map
+	 */
+	private int applyDirectly(RBTree tree)
+	{
+		int applied = 0;
+		for (Change change : this.changes.values())
+		{
+			if (!change.wasInTree)
+			{
+				if (change.inTree)
+				{
+					change.applyFeatures();
+					tree.rbInsert(change.page);
+					applied++;
+				}
+				continue;
+			}
+			TreeNode z = tree.nodeOf(change.page);
+			if (z == null)
+			{
+				continue;
+			}
+			if (!change.inTree)
+			{
+				tree.rbDelete(z);
+				applied++;
+			}
+			else if (change.featuresChanged)
+			{
+				tree.updateScore(z, change.wordFrequency, change.daysExisted, change.numberOfLinks, change.adMoney);
+				applied++;
+			}
+		}
+		return applied;
+	}
+
+
+	/**
+	 * Apply the changes one by one: deletes and updates in ascending order of the
+	 * old key, then inserts in ascending order of the new key
+	 */
+	private int applyInOrder(RBTree tree)
+	{
+		List<TreeNode> nodes = new ArrayList<TreeNode>();
+		List<Change> inserts = new ArrayList<Change>();
+		for (Change change : this.changes.values())
+		{
+			if (change.wasInTree)
+			{
+				TreeNode z = tree.nodeOf(change.page);
+				if (z != null && (!change.inTree || change.featuresChanged))
+				{
+					nodes.add(z);
+				}
+			}
+			else if (change.inTree)
+			{
+				inserts.add(change);
+			}
+		}
+
+		long[] order = new long[nodes.size()];
+		for (int i = 0; i < order.length; i++)
+		{
+			order[i] = ((long) nodes.get(i).key << 32) | i;
+		}
+		Arrays.sort(order);
+		for (long entry : order)
+		{
+			TreeNode z = nodes.get((int) entry);
+			Change change = this.changes.get(z.data);
+			if (change.inTree)
+			{
+				tree.updateScore(z, change.wordFrequency, change.daysExisted, change.numberOfLinks, change.adMoney);
+			}
+			else
+			{
+				tree.rbDelete(z);
+			}
+		}
+
+		order = new long[inserts.size()];
+		for (int i = 0; i < order.length; i++)
+		{
+			Change change = inserts.get(i);
+			change.applyFeatures();
+			order[i] = ((long) change.page.getScore() << 32) | i;
+		}
+		Arrays.sort(order);
+		for (long entry : order)
+		{
+			tree.rbInsert(inserts.get((int) entry).page);
+		}
+		return nodes.size() + inserts.size();
+	}
+
+
+	/**
+	 * Merge the pages of the tree that keep their place with the sorted pages that
+	 * get a new one, and build the tree again from the result
+	 */
+	private int rebuild(RBTree tree)
+	{
+		WebPage[] kept = new WebPage[tree.size()];
+		int[] keptCount = new int[1];
+		tree.inOrderTreeWalk(page -> {
+			Change change = this.changes.get(page);
+			if (change == null)
+			{
+				kept[keptCount[0]++] = page;
+			}
+			else
+			{
+				change.found = true;
+			}
+		});
+		int applied = 0;
+		List<WebPage> placed = new ArrayList<WebPage>();
+		for (Change change : this.changes.values())
+		{
+			if (change.inTree && (change.found || !change.wasInTree))
+			{
+				change.applyFeatures();
+				placed.add(change.page);
+			}
+			if (change.found ? !change.inTree || change.featuresChanged : change.inTree && !change.wasInTree)
+			{
+				applied++;
+			}
+		}
+		WebPage[] incoming = placed.toArray(new WebPage[0]);
+		Arrays.sort(incoming, WebPage.SCORE_ORDER);
+
+		WebPage[] pages = new WebPage[keptCount[0] + incoming.length];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < pages.length; k++)
+		{
+			if (j == incoming.length || (i < keptCount[0] && WebPage.SCORE_ORDER.compare(kept[i], incoming[j]) < 0))
+			{
+				pages[k] = kept[i++];
+			}
+			else
+			{
+				pages[k] = incoming[j++];
+			}
+		}
+		tree.bulkLoadSorted(pages);
+		return applied;
+	}
+}
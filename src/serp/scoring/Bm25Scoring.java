@@ -0,0 +1,76 @@
+package serp.scoring;
+
+/**
+ * Weighs the keyword frequency the way BM25 weighs term frequency: every further
+ * occurrence adds less than the one before, so a page cannot rank first by
+ * repeating the keyword. Without document lengths the length normalization of
+ * BM25 is left out. The saturated frequency is scaled to 0 .. 100, the other
+ * features are added with linear weights.
+ */
+public class Bm25Scoring implements ScoringFunction
+{
+	public static final double DEFAULT_K1 = 1.2;
+
+	private final double k1;
+	private final double scale; // 100 / (k1 + 1), the limit of the saturated frequency maps to 100
+	private final LinearScoring rest;
+
+
+	/**
+	 * BM25 weighting with the usual k1 and weights of 1
+	 */
+	public Bm25Scoring()
+	{
+		this(DEFAULT_K1, 1, 1, 1);
+	}
+
+
+	/**
+	 * @param k1
+	 *            how fast the weight of the frequency saturates, smaller values
+	 *            saturate faster
+	 * @param daysExistedWeight
+	 *            weight of daysExisted
+	 * @param numberOfLinksWeight
+	 *            weight of numberOfLinks
+	 * @param adMoneyWeight
+	 *            weight of adMoney
+	 */
+	public Bm25Scoring(double k1, double daysExistedWeight, double numberOfLinksWeight, double adMoneyWeight)
+	{
+		if (k1 <= 0)
+		{
+			throw new IllegalArgumentException("k1 must be positive");
+		}
+		this.k1 = k1;
+		this.scale = 100 / (k1 + 1);
+		this.rest = new LinearScoring(0, daysExistedWeight, numberOfLinksWeight, adMoneyWeight);
+	}
+
+
+	@Override
+	public int score(int wordFrequency, int daysExisted, int numberOfLinks, int adMoney)
+	{
+		return (int) Math.round(this.termWeight(wordFrequency))
+				+ this.rest.score(0, daysExisted, numberOfLinks, adMoney);
+	}
+
+
+	@Override
+	public void scoreAll(FeatureColumns features, int from, int to, int[] scores)
+	{
+		this.rest.scoreAll(features, from, to, scores);
+		int[] frequencies = features.wordFrequency;
+		for (int i = from; i < to; i++)
+		{
+			scores[i] += (int) Math.round(this.termWeight(frequencies[i]));
+		}
+	}
+
+
+	private double termWeight(int frequency)
+	{
+		double tf = Math.max(0, frequency);
+		return this.scale * tf * (this.k1 + 1) / (tf + this.k1);
+	}
+}
@@ -0,0 +1,74 @@
+package serp.scoring;
+
+import serp.WebPage;
+
+/**
+ * Features of many web pages stored column by column, one int array per
+ * feature. Batch scoring reads the columns sequentially instead of chasing a
+ * pointer per page.
+ */
+public class FeatureColumns
+{
+	public final int[] wordFrequency;
+	public final int[] daysExisted;
+	public final int[] numberOfLinks;
+	public final int[] adMoney;
+
+
+	/**
+	 * Empty columns for a number of pages
+	 * 
+	 * @param size
+	 *            number of pages
+	 */
+	public FeatureColumns(int size)
+	{
+		this.wordFrequency = new int[size];
+		this.daysExisted = new int[size];
+		this.numberOfLinks = new int[size];
+		this.adMoney = new int[size];
+	}
+
+
+	/**
+	 * Columns that share existing arrays. The size is the length of
+	 * wordFrequency, the other arrays may be longer.
+	 */
+	FeatureColumns(int[] wordFrequency, int[] daysExisted, int[] numberOfLinks, int[] adMoney)
+	{
+		this.wordFrequency = wordFrequency;
+		this.daysExisted = daysExisted;
+		this.numberOfLinks = numberOfLinks;
+		this.adMoney = adMoney;
+	}
+
+
+	/**
+	 * Copy the features of web pages into columns
+	 * 
+	 * @param pages
+	 *            web pages
+	 * @return features of page i at index i
+	 */
+	public static FeatureColumns of(WebPage[] pages)
+	{
+		FeatureColumns features = new FeatureColumns(pages.length);
+		for (int i = 0; i < pages.length; i++)
+		{
+			features.wordFrequency[i] = pages[i].getWordFrequency();
+			features.daysExisted[i] = pages[i].getDaysExisted();
+			features.numberOfLinks[i] = pages[i].getNumberOfLinks();
+			features.adMoney[i] = pages[i].getAdMoney();
+		}
+		return features;
+	}
+
+
+	/**
+	 * @return number of pages
+	 */
+	public int size()
+	{
+		return this.wordFrequency.length;
+	}
+}
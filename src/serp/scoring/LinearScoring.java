@@ -0,0 +1,62 @@
+package serp.scoring;
+
+/**
+ * Weighted sum of the four features, rounded to the nearest integer. Weights of
+ * 1 give the original score. The weights are kept in fixed point with 24
+ * fractional bits, so a score is integer arithmetic only and the batch loop
+ * can be vectorized. Weights are rounded to a multiple of 2^-24, for features
+ * below 2^20 that changes the sum before rounding by less than 1/8.
+ */
+public class LinearScoring implements ScoringFunction
+{
+	private static final int FRACTION_BITS = 24;
+	private static final long HALF = 1L << (FRACTION_BITS - 1);
+
+	private final long wordFrequencyWeight;
+	private final long daysExistedWeight;
+	private final long numberOfLinksWeight;
+	private final long adMoneyWeight;
+
+
+	public LinearScoring(double wordFrequencyWeight, double daysExistedWeight, double numberOfLinksWeight,
+			double adMoneyWeight)
+	{
+		this.wordFrequencyWeight = LinearScoring.fixed(wordFrequencyWeight);
+		this.daysExistedWeight = LinearScoring.fixed(daysExistedWeight);
+		this.numberOfLinksWeight = LinearScoring.fixed(numberOfLinksWeight);
+		this.adMoneyWeight = LinearScoring.fixed(adMoneyWeight);
+	}
+
+
+	@Override
+	public int score(int wordFrequency, int daysExisted, int numberOfLinks, int adMoney)
+	{
+		return (int) ((this.wordFrequencyWeight * wordFrequency + this.daysExistedWeight * daysExisted
+				+ this.numberOfLinksWeight * numberOfLinks + this.adMoneyWeight * adMoney + HALF) >> FRACTION_BITS);
+	}
+
+
+	@Override
+	public void scoreAll(FeatureColumns features, int from, int to, int[] scores)
+	{
+		// Weights and columns in locals so that the loop body is plain arithmetic
+		long w0 = this.wordFrequencyWeight, w1 = this.daysExistedWeight, w2 = this.numberOfLinksWeight,
+				w3 = this.adMoneyWeight;
+		int[] f0 = features.wordFrequency, f1 = features.daysExisted, f2 = features.numberOfLinks,
+				f3 = features.adMoney;
+		for (int i = from; i < to; i++)
+		{
+			scores[i] = (int) ((w0 * f0[i] + w1 * f1[i] + w2 * f2[i] + w3 * f3[i] + HALF) >> FRACTION_BITS);
+		}
+	}
+
+
+	private static long fixed(double weight)
+	{
+		if (Math.abs(weight) >= 1 << 15)
+		{
+			throw new IllegalArgumentException("Weight out of range: " + weight);
+		}
+		return Math.round(weight * (1 << FRACTION_BITS));
+	}
+}
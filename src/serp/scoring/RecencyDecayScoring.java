@@ -0,0 +1,92 @@
+package serp.scoring;
+
+/**
+ * Favors new pages: daysExisted counts as 100 for a page of age 0 and halves
+ * with every halfLife days. The other features are scored by another function.
+ * The freshness of every age up to the one where it rounds to 0 is computed
+ * once, so scoring a page looks it up instead of calling Math.exp().
+ */
+public class RecencyDecayScoring implements ScoringFunction
+{
+	private static final int MAX_TABLE_DAYS = 1 << 16;
+
+	private final ScoringFunction base;
+	private final double weight;
+	private final double decay; // ln 2 / halfLife
+	private final int[] freshness; // by age, up to the age where it rounds to 0 or MAX_TABLE_DAYS
+	private volatile int[] noAge = new int[0]; // zero daysExisted column for the base function
+
+
+	/**
+	 * @param base
+	 *            scores wordFrequency, numberOfLinks and adMoney, it is called
+	 *            with daysExisted 0
+	 * @param halfLife
+	 *            days after which the freshness of a page is halved
+	 * @param weight
+	 *            weight of the freshness
+	 */
+	public RecencyDecayScoring(ScoringFunction base, double halfLife, double weight)
+	{
+		if (halfLife <= 0)
+		{
+			throw new IllegalArgumentException("Half life must be positive");
+		}
+		this.base = base;
+		this.weight = weight;
+		this.decay = Math.log(2) / halfLife;
+		int days = 0;
+		while (days < MAX_TABLE_DAYS && this.computeFreshness(days) != 0)
+		{
+			days++;
+		}
+		this.freshness = new int[days];
+		for (int d = 0; d < days; d++)
+		{
+			this.freshness[d] = this.computeFreshness(d);
+		}
+	}
+
+
+	@Override
+	public int score(int wordFrequency, int daysExisted, int numberOfLinks, int adMoney)
+	{
+		return this.base.score(wordFrequency, 0, numberOfLinks, adMoney) + this.freshness(daysExisted);
+	}
+
+
+	@Override
+	public void scoreAll(FeatureColumns features, int from, int to, int[] scores)
+	{
+		int[] noAge = this.noAge;
+		if (noAge.length < features.size())
+		{
+			noAge = new int[features.size()];
+			this.noAge = noAge;
+		}
+		this.base.scoreAll(new FeatureColumns(features.wordFrequency, noAge, features.numberOfLinks,
+				features.adMoney), from, to, scores);
+		int[] days = features.daysExisted;
+		for (int i = from; i < to; i++)
+		{
+			scores[i] += this.freshness(days[i]);
+		}
+	}
+
+
+	private int freshness(int days)
+	{
+		int age = Math.max(0, days);
+		if (age < this.freshness.length)
+		{
+			return this.freshness[age];
+		}
+		return age < MAX_TABLE_DAYS ? 0 : this.computeFreshness(age);
+	}
+
+
+	private int computeFreshness(int days)
+	{
+		return (int) Math.round(this.weight * 100 * Math.exp(-this.decay * days));
+	}
+}
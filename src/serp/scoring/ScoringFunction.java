@@ -0,0 +1,54 @@
+package serp.scoring;
+
+/**
+ * Computes the score of a web page, the key pages are ranked by, from its four
+ * features. Implementations must be deterministic: a page has to get the same
+ * score every time as long as its features do not change.
+ */
+public interface ScoringFunction
+{
+	/**
+	 * The original score: the plain sum of the four features
+	 */
+	ScoringFunction SUM = new SumScoring();
+
+
+	/**
+	 * Score of one page
+	 * 
+	 * @param wordFrequency
+	 *            occurrences of the keyword on the page
+	 * @param daysExisted
+	 *            how long the page exists
+	 * @param numberOfLinks
+	 *            importance of the page by links pointing to it
+	 * @param adMoney
+	 *            money paid for advertisement
+	 * @return score of the page
+	 */
+	int score(int wordFrequency, int daysExisted, int numberOfLinks, int adMoney);
+
+
+	/**
+	 * Score a range of pages stored as columns. Implementations override this
+	 * with a loop the JIT can unroll and vectorize, the default scores one page
+	 * at a time.
+	 * 
+	 * @param features
+	 *            features of the pages
+	 * @param from
+	 *            first page to score
+	 * @param to
+	 *            end of the range, exclusive
+	 * @param scores
+	 *            receives the score of page i at index i
+	 */
+	default void scoreAll(FeatureColumns features, int from, int to, int[] scores)
+	{
+		for (int i = from; i < to; i++)
+		{
+			scores[i] = this.score(features.wordFrequency[i], features.daysExisted[i], features.numberOfLinks[i],
+					features.adMoney[i]);
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package serp.scoring;
+
+/**
+ * The original score: the plain sum of the four features
+ */
+public class SumScoring implements ScoringFunction
+{
+	@Override
+	public int score(int wordFrequency, int daysExisted, int numberOfLinks, int adMoney)
+	{
+		return wordFrequency + daysExisted + numberOfLinks + adMoney;
+	}
+
+
+	@Override
+	public void scoreAll(FeatureColumns features, int from, int to, int[] scores)
+	{
+		int[] f0 = features.wordFrequency, f1 = features.daysExisted, f2 = features.numberOfLinks,
+				f3 = features.adMoney;
+		for (int i = from; i < to; i++)
+		{
+			scores[i] = f0[i] + f1[i] + f2[i] + f3[i];
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package serp.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import serp.WebPage;
+import serp.rbtree.RBTree;
+
+/**
+ * Loads snapshots written by SnapshotWriter. Each block is read with a single
+ * channel read and its int columns are copied out in bulk, so loading costs
+ * little more than creating the WebPage objects.
+ */
+public class SnapshotReader
+{
+	/**
+	 * Read all web pages of a snapshot
+	 * 
+	 * @param path
+	 *            location of the snapshot
+	 * @return pages in the order they were written
+	 * @throws IOException
+	 *             if the file cannot be read or is not a snapshot
+	 */
+	public static WebPage[] load(Path path) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			return SnapshotReader.load(channel, SnapshotReader.readHeader(channel));
+		}
+	}
+
+
+	/**
+	 * Replace the content of a tree with the pages of a snapshot. A snapshot of a
+	 * tree is already in order and goes straight to the linear time builder.
+	 * 
+	 * @param path
+	 *            location of the snapshot
+	 * @param tree
+	 *            tree to fill
+	 * @throws IOException
+	 *             if the file cannot be read or is not a snapshot
+	 */
+	public static void loadInto(Path path, RBTree tree) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			ByteBuffer header = SnapshotReader.readHeader(channel);
+			boolean sorted = (header.getInt(8) & SnapshotWriter.FLAG_SORTED) != 0;
+			WebPage[] pages = SnapshotReader.load(channel, header);
+			if (sorted)
+			{
+				tree.bulkLoadSorted(pages);
+			}
+			else
+			{
+				tree.bulkLoad(pages);
+			}
+		}
+	}
+
+
+	private static ByteBuffer readHeader(FileChannel channel) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(SnapshotWriter.HEADER_BYTES);
+		SnapshotReader.readFully(channel, header);
+		if (header.getInt(0) != SnapshotWriter.MAGIC || header.getInt(4) != SnapshotWriter.VERSION)
+		{
+			throw new IOException("Not a web page snapshot");
+		}
+		if (header.getInt(12) < 0)
+		{
+			throw new IOException("Corrupt snapshot: negative page count");
+		}
+		return header;
+	}
+
+
+	private static WebPage[] load(FileChannel channel, ByteBuffer header) throws IOException
+	{
+		// Every page takes at least its columns, a larger count cannot be right
+		if (header.getInt(12) > (channel.size() - channel.position()) / (4 * SnapshotWriter.COLUMNS))
+		{
+			throw new IOException("Corrupt snapshot: more pages than the file can hold");
+		}
+		WebPage[] pages = new WebPage[header.getInt(12)];
+		int row = 0;
+		ByteBuffer length = ByteBuffer.allocate(4);
+		ByteBuffer block = ByteBuffer.allocate(0);
+		int[][] columns = new int[SnapshotWriter.COLUMNS][];
+		while (true)
+		{
+			length.clear();
+			SnapshotReader.readFully(channel, length);
+			int blockBytes = length.getInt(0);
+			if (blockBytes == 0)
+			{
+				break;
+			}
+			if (blockBytes < 12) // rows, pool size and pool bytes
+			{
+				throw new IOException("Corrupt snapshot: block too short");
+			}
+			if (blockBytes > channel.size() - channel.position())
+			{
+				throw new IOException("Corrupt snapshot: block exceeds the file");
+			}
+			if (block.capacity() < blockBytes)
+			{
+				block = ByteBuffer.allocate(blockBytes);
+			}
+			block.clear().limit(blockBytes);
+			SnapshotReader.readFully(channel, block);
+			block.flip();
+
+			int rows = block.getInt();
+			int poolSize = block.getInt();
+			int poolBytes = block.getInt();
+			if (rows < 0 || rows > pages.length - row)
+			{
+				throw new IOException("Corrupt snapshot: more pages than the header declares");
+			}
+			if (poolSize < 0 || poolBytes < 0 || (4L * (poolSize + 1) + poolBytes) > block.remaining())
+			{
+				throw new IOException("Corrupt snapshot: string pool exceeds its block");
+			}
+			int[] offsets = new int[poolSize + 1];
+			block.asIntBuffer().get(offsets);
+			block.position(block.position() + 4 * offsets.length);
+			String[] pool = new String[poolSize];
+			byte[] bytes = new byte[poolBytes];
+			block.get(bytes);
+			for (int i = 0; i < poolSize; i++)
+			{
+				if (offsets[i] < 0 || offsets[i] > offsets[i + 1] || offsets[i + 1] > poolBytes)
+				{
+					throw new IOException("Corrupt snapshot: bad string pool offset");
+				}
+				pool[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+			}
+
+			IntBuffer ints = block.asIntBuffer();
+			if ((long) columns.length * rows > ints.remaining())
+			{
+				throw new IOException("Corrupt snapshot: columns exceed their block");
+			}
+			for (int c = 0; c < columns.length; c++)
+			{
+				if (columns[c] == null || columns[c].length < rows)
+				{
+					columns[c] = new int[rows];
+				}
+				ints.get(columns[c], 0, rows);
+			}
+			int[] links = columns[0], ids = columns[1], wordFrequency = columns[2], daysExisted = columns[3],
+					numberOfLinks = columns[4], adMoney = columns[5], scores = columns[6], index = columns[7];
+			for (int i = 0; i < rows; i++)
+			{
+				if (links[i] < 0 || links[i] >= poolSize)
+				{
+					throw new IOException("Corrupt snapshot: bad link reference");
+				}
+				WebPage page = new WebPage(ids[i], pool[links[i]], wordFrequency[i], daysExisted[i], numberOfLinks[i],
+						adMoney[i], index[i]);
+				if (page.getScore() != scores[i])
+				{
+					// Written under another scoring function, keep the saved order
+					page.setScore(scores[i]);
+				}
+				pages[row++] = page;
+			}
+		}
+		if (row != pages.length)
+		{
+			throw new IOException("Truncated snapshot");
+		}
+		return pages;
+	}
+
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer) < 0)
+			{
+				throw new IOException("Truncated snapshot");
+			}
+		}
+	}
+}
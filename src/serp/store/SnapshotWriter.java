@@ -0,0 +1,227 @@
+package serp.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import serp.WebPage;
+import serp.rbtree.RBTree;
+
+/**
+ * Streams web pages into a compact binary snapshot. Pages are buffered in
+ * blocks of BLOCK_ROWS rows, each block is written column by column: a pool of
+ * distinct links followed by packed int columns for the link references, ids,
+ * the four features, the score and the original index.
+ * 
+ * File layout, all numbers big endian:
+ * 
+ * <pre>
+ * header: magic, version, flags, row count
+ * block:  byte length of the rest of the block, row count,
+ *         pool size, pool byte length, pool offsets[pool size + 1], pool bytes,
+ *         link[rows], id[rows], wordFrequency[rows], daysExisted[rows],
+ *         numberOfLinks[rows], adMoney[rows], score[rows], index[rows]
+ * end:    a block length of 0
+ * </pre>
+ */
+public class SnapshotWriter implements Closeable
+{
+	static final int MAGIC = 0x53525053; // "SRPS"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 16;
+	static final int FLAG_SORTED = 1; // rows are in ascending order of score and id
+	static final int COLUMNS = 8;
+	static final int BLOCK_ROWS = 1 << 16;
+
+	private final FileChannel channel;
+	private final WebPage[] block = new WebPage[BLOCK_ROWS];
+	private int blockRows = 0;
+	private int totalRows = 0;
+	private boolean sorted = true;
+	private WebPage last = null;
+
+
+	/**
+	 * Create a snapshot file, replacing any existing file
+	 * 
+	 * @param path
+	 *            location of the snapshot
+	 * @throws IOException
+	 *             if the file cannot be created
+	 */
+	public SnapshotWriter(Path path) throws IOException
+	{
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		this.channel.write(ByteBuffer.allocate(HEADER_BYTES)); // filled in by close()
+	}
+
+
+	/**
+	 * Write all pages of a tree into a snapshot file. Pages are streamed in
+	 * ascending order, so loading the snapshot skips sorting.
+	 * 
+	 * @param path
+	 *            location of the snapshot
+	 * @param tree
+	 *            tree to save
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void write(Path path, RBTree tree) throws IOException
+	{
+		try (SnapshotWriter writer = new SnapshotWriter(path))
+		{
+			for (WebPage page : tree.inOrderTreeWalk())
+			{
+				writer.write(page);
+			}
+		}
+	}
+
+
+	/**
+	 * Append a web page to the snapshot
+	 * 
+	 * @param page
+	 *            page to write
+	 * @throws IOException
+	 *             if a full block cannot be written
+	 */
+	public void write(WebPage page) throws IOException
+	{
+		if (this.last != null && WebPage.SCORE_ORDER.compare(this.last, page) > 0)
+		{
+			this.sorted = false;
+		}
+		this.last = page;
+		this.block[this.blockRows++] = page;
+		this.totalRows++;
+		if (this.blockRows == BLOCK_ROWS)
+		{
+			this.flushBlock();
+		}
+	}
+
+
+	/**
+	 * Write the last block and the header and close the file
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			this.flushBlock();
+			this.writeFully(ByteBuffer.allocate(4).putInt(0).flip());
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).putInt(this.sorted ? FLAG_SORTED : 0).putInt(this.totalRows);
+			header.flip();
+			while (header.hasRemaining())
+			{
+				this.channel.write(header, header.position());
+			}
+		}
+		finally
+		{
+			this.channel.close();
+		}
+	}
+
+
+	private void flushBlock() throws IOException
+	{
+		if (this.blockRows == 0)
+		{
+			return;
+		}
+		int rows = this.blockRows;
+
+		// Pool of distinct links of this block
+		HashMap<String, Integer> poolIndex = new HashMap<>();
+		ArrayList<byte[]> pool = new ArrayList<>();
+		int[] links = new int[rows];
+		int poolBytes = 0;
+		for (int i = 0; i < rows; i++)
+		{
+			String link = this.block[i].getLink();
+			Integer ref = poolIndex.get(link);
+			if (ref == null)
+			{
+				ref = pool.size();
+				poolIndex.put(link, ref);
+				byte[] bytes = link.getBytes(StandardCharsets.UTF_8);
+				pool.add(bytes);
+				poolBytes += bytes.length;
+			}
+			links[i] = ref;
+		}
+
+		int length = 4 + 4 + 4 + 4 * (pool.size() + 1) + poolBytes + 4 * COLUMNS * rows;
+		ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+		buffer.putInt(length).putInt(rows).putInt(pool.size()).putInt(poolBytes);
+		int offset = 0;
+		for (byte[] bytes : pool)
+		{
+			buffer.putInt(offset);
+			offset += bytes.length;
+		}
+		buffer.putInt(offset);
+		for (byte[] bytes : pool)
+		{
+			buffer.put(bytes);
+		}
+		for (int i = 0; i < rows; i++)
+		{
+			buffer.putInt(links[i]);
+		}
+		for (int i = 0; i < rows; i++)
+		{
+			buffer.putInt(this.block[i].getId());
+		}
+		for (int i = 0; i < rows; i++)
+		{
+			buffer.putInt(this.block[i].getWordFrequency());
+		}
+		for (int i = 0; i < rows; i++)
+		{
+			buffer.putInt(this.block[i].getDaysExisted());
+		}
+		for (int i = 0; i < rows; i++)
+		{
+			buffer.putInt(this.block[i].getNumberOfLinks());
+		}
+		for (int i = 0; i < rows; i++)
+		{
+			buffer.putInt(this.block[i].getAdMoney());
+		}
+		for (int i = 0; i < rows; i++)
+		{
+			buffer.putInt(this.block[i].getScore());
+		}
+		for (int i = 0; i < rows; i++)
+		{
+			buffer.putInt(this.block[i].getIndex());
+		}
+		buffer.flip();
+		this.writeFully(buffer);
+		Arrays.fill(this.block, 0, rows, null);
+		this.blockRows = 0;
+	}
+
+
+	private void writeFully(ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			this.channel.write(buffer);
+		}
+	}
+}
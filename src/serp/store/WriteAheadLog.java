@@ -0,0 +1,549 @@
+package serp.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import serp.WebPage;
+import serp.rbtree.RBTree;
+import serp.rbtree.TreeNode;
+
+/**
+ * Append only log of the inserts, deletes and updates applied to an RBTree
+ * since its last snapshot. Both files live in one directory: index-N.snapshot
+ * holds the tree as of checkpoint N, index.wal every change made after it. The
+ * log header names the checkpoint it continues, so a crash between writing a
+ * new snapshot and emptying the log is detected on recovery and the stale log
+ * is dropped. A log without a complete header, left by a crash while it was
+ * created, continues the newest snapshot in the directory.
+ *
+ * Records are appended to an in-memory buffer. commit() makes everything
+ * appended so far durable. When several threads commit at the same time, the
+ * first one writes and forces the records of all of them, so a burst of
+ * updates costs one fsync instead of one per update.
+ *
+ * Record layout: payload length, CRC32 of the payload, payload. A torn record
+ * at the end of the file, left by a crash in the middle of a write, is
+ * dropped on recovery. Inserts and updates carry the score the page had when
+ * it was logged, so replaying under another scoring function rebuilds the same
+ * tree. A delete or update of a page that is not in the tree means the log
+ * does not belong to its snapshot and fails the recovery.
+ */
+public class WriteAheadLog implements Closeable
+{
+	private static final long MAGIC = 0x5352505357414C02L; // "SRPSWAL" and version 2
+	private static final int LOG_HEADER_BYTES = 16;
+	private static final byte INSERT = 1;
+	private static final byte DELETE = 2;
+	private static final byte UPDATE = 3;
+	private static final int RECORD_HEADER_BYTES = 8;
+	private static final int MAX_LINK_BYTES = 0xFFFF;
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	private final Path directory;
+	private final Path logPath;
+	private final FileChannel channel;
+	private final Object flushLock = new Object();
+	private final CRC32 crc = new CRC32();
+
+	// Guarded by this
+	private ByteBuffer pending = ByteBuffer.allocate(BUFFER_BYTES);
+	private ByteBuffer spare = ByteBuffer.allocate(BUFFER_BYTES);
+	private long appended = 0; // sequence number of the last appended record
+	private long written = 0; // sequence number of the last record handed to the channel
+	private long checkpoint; // number of the snapshot the log continues, 0 for an empty tree
+	private long droppedBytes = 0; // torn tail cut off by the last recovery
+
+	// Guarded by flushLock
+	private volatile long durable = 0; // sequence number of the last forced record
+
+
+	/**
+	 * Open the log in a directory, creating the directory and the log if needed
+	 *
+	 * @param directory
+	 *            directory of the snapshot and the log
+	 * @throws IOException
+	 *             if the log cannot be opened
+	 */
+	public WriteAheadLog(Path directory) throws IOException
+	{
+		Files.createDirectories(directory);
+		this.directory = directory;
+		this.logPath = directory.resolve("index.wal");
+		this.channel = FileChannel.open(this.logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		if (this.channel.size() < LOG_HEADER_BYTES)
+		{
+			this.reset(this.newestSnapshot());
+		}
+		else
+		{
+			ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_BYTES);
+			this.readFully(header, 0);
+			if (header.getLong(0) >>> 8 != MAGIC >>> 8)
+			{
+				this.channel.close();
+				throw new IOException("Not a web page log " + this.logPath);
+			}
+			if (header.getLong(0) != MAGIC)
+			{
+				this.channel.close();
+				throw new IOException("Unsupported log version " + (header.getLong(0) & 0xFF) + " " + this.logPath);
+			}
+			this.checkpoint = header.getLong(8);
+			this.channel.position(this.channel.size());
+		}
+	}
+
+
+	/**
+	 * Record the insertion of a web page
+	 *
+	 * @param page
+	 *            inserted page
+	 * @return sequence number of the record
+	 */
+	public long logInsert(WebPage page)
+	{
+		byte[] link = page.getLink().getBytes(StandardCharsets.UTF_8);
+		if (link.length > MAX_LINK_BYTES)
+		{
+			throw new IllegalArgumentException("Link is longer than " + MAX_LINK_BYTES + " bytes");
+		}
+		ByteBuffer record = ByteBuffer.allocate(1 + 4 * 7 + 2 + link.length);
+		record.put(INSERT).putInt(page.getId()).putInt(page.getWordFrequency()).putInt(page.getDaysExisted())
+				.putInt(page.getNumberOfLinks()).putInt(page.getAdMoney()).putInt(page.getIndex())
+				.putInt(page.getScore()).putShort((short) link.length).put(link);
+		return this.append(record);
+	}
+
+
+	/**
+	 * Record the deletion of a web page
+	 *
+	 * @param page
+	 *            deleted page
+	 * @return sequence number of the record
+	 */
+	public long logDelete(WebPage page)
+	{
+		ByteBuffer record = ByteBuffer.allocate(1 + 4 * 2);
+		record.put(DELETE).putInt(page.getId()).putInt(page.getScore());
+		return this.append(record);
+	}
+
+
+	/**
+	 * Record new features of a web page
+	 *
+	 * @param oldScore
+	 *            score of the page before the update, its position in the tree
+	 * @param page
+	 *            page with the new features and score
+	 * @return sequence number of the record
+	 */
+	public long logUpdate(int oldScore, WebPage page)
+	{
+		ByteBuffer record = ByteBuffer.allocate(1 + 4 * 7);
+		record.put(UPDATE).putInt(page.getId()).putInt(oldScore).putInt(page.getWordFrequency())
+				.putInt(page.getDaysExisted()).putInt(page.getNumberOfLinks()).putInt(page.getAdMoney())
+				.putInt(page.getScore());
+		return this.append(record);
+	}
+
+
+	/**
+	 * Make all records appended so far durable. Returns once they have been
+	 * forced to disk, possibly by another committing thread.
+	 *
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	public void commit() throws IOException
+	{
+		long target;
+		synchronized (this)
+		{
+			target = this.appended;
+		}
+		this.commit(target);
+	}
+
+
+	/**
+	 * Make all records up to a sequence number durable
+	 *
+	 * @param sequence
+	 *            sequence number returned by one of the log methods
+	 * @throws IOException
+	 *             if the log cannot be written
+	 */
+	public void commit(long sequence) throws IOException
+	{
+		if (this.durable >= sequence)
+		{
+			return;
+		}
+		synchronized (this.flushLock)
+		{
+			// A thread that forced the log while we waited may have covered us
+			if (this.durable >= sequence)
+			{
+				return;
+			}
+			long last;
+			synchronized (this)
+			{
+				this.writePending();
+				last = this.written;
+			}
+			this.channel.force(false);
+			this.durable = last;
+		}
+	}
+
+
+	/**
+	 * Rebuild a tree from the last snapshot and the log written after it. Call
+	 * once after opening the log and before appending to it.
+	 *
+	 * @param tree
+	 *            tree to fill, its content is replaced
+	 * @return number of log records applied
+	 * @throws IOException
+	 *             if the snapshot or the log cannot be read, or the log changes
+	 *             pages that are not in the snapshot
+	 */
+	public synchronized int recover(RBTree tree) throws IOException
+	{
+		Path next = this.snapshot(this.checkpoint + 1);
+		if (Files.exists(next))
+		{
+			// The last checkpoint wrote its snapshot but did not get to empty the log
+			SnapshotReader.loadInto(next, tree);
+			this.finishCheckpoint(this.checkpoint + 1);
+			this.droppedBytes = 0;
+			return 0;
+		}
+		if (this.checkpoint > 0)
+		{
+			SnapshotReader.loadInto(this.snapshot(this.checkpoint), tree);
+		}
+		else
+		{
+			tree.clear();
+		}
+		return this.replay(tree);
+	}
+
+
+	/**
+	 * Size of the torn record that the last recovery cut off the end of the log,
+	 * left by a crash in the middle of a write
+	 *
+	 * @return number of bytes dropped, 0 if the log ended on a complete record
+	 */
+	public synchronized long droppedBytes()
+	{
+		return this.droppedBytes;
+	}
+
+
+	/**
+	 * Apply the records of the log to a tree. A torn record at the end of the log
+	 * is cut off and its size kept for droppedBytes().
+	 */
+	private int replay(RBTree tree) throws IOException
+	{
+		this.writePending();
+		long end = this.channel.size();
+		long position = LOG_HEADER_BYTES;
+		int applied = 0;
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+		ByteBuffer payload = ByteBuffer.allocate(256);
+		while (end - position >= RECORD_HEADER_BYTES)
+		{
+			header.clear();
+			this.readFully(header, position);
+			int length = header.getInt(0);
+			if (length <= 0 || length > end - position - RECORD_HEADER_BYTES)
+			{
+				break;
+			}
+			if (payload.capacity() < length)
+			{
+				payload = ByteBuffer.allocate(length);
+			}
+			payload.clear().limit(length);
+			this.readFully(payload, position + RECORD_HEADER_BYTES);
+			this.crc.reset();
+			this.crc.update(payload.array(), 0, length);
+			if ((int) this.crc.getValue() != header.getInt(4))
+			{
+				break;
+			}
+			payload.flip();
+			this.apply(payload, tree);
+			applied++;
+			position += RECORD_HEADER_BYTES + length;
+		}
+		this.droppedBytes = end - position;
+		if (position < end)
+		{
+			this.channel.truncate(position);
+		}
+		this.channel.position(position);
+		return applied;
+	}
+
+
+	/**
+	 * Write a snapshot of the tree and empty the log. The tree must not change
+	 * while the checkpoint runs.
+	 *
+	 * @param tree
+	 *            tree to save
+	 * @throws IOException
+	 *             if the snapshot or the log cannot be written
+	 */
+	public synchronized void checkpoint(RBTree tree) throws IOException
+	{
+		Path temporary = this.directory.resolve("index.snapshot.tmp");
+		SnapshotWriter.write(temporary, tree);
+		try (FileChannel snapshot = FileChannel.open(temporary, StandardOpenOption.WRITE))
+		{
+			snapshot.force(true);
+		}
+		Files.move(temporary, this.snapshot(this.checkpoint + 1), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		this.finishCheckpoint(this.checkpoint + 1);
+	}
+
+
+	/**
+	 * Commit the pending records and close the log
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			this.commit();
+		}
+		finally
+		{
+			this.channel.close();
+		}
+	}
+
+
+	private Path snapshot(long number)
+	{
+		return this.directory.resolve("index-" + number + ".snapshot");
+	}
+
+
+	/**
+	 * Number of the newest snapshot in the directory
+	 *
+	 * @return 0 if there is no snapshot
+	 */
+	private long newestSnapshot() throws IOException
+	{
+		long newest = 0;
+		try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(this.directory, "index-*.snapshot"))
+		{
+			for (Path snapshot : snapshots)
+			{
+				String name = snapshot.getFileName().toString();
+				try
+				{
+					newest = Math.max(newest, Long.parseLong(name.substring(6, name.length() - 9)));
+				}
+				catch (NumberFormatException exception)
+				{
+					// Not one of ours
+				}
+			}
+		}
+		return newest;
+	}
+
+
+	/**
+	 * Start an empty log on top of a new snapshot and remove the previous one.
+	 * Records appended before the snapshot are part of it now.
+	 */
+	private void finishCheckpoint(long number) throws IOException
+	{
+		this.pending.clear();
+		this.written = this.appended;
+		this.reset(number);
+		this.durable = this.appended;
+		Files.deleteIfExists(this.snapshot(number - 1));
+	}
+
+
+	/**
+	 * Replace the content of the log with a header for a checkpoint. The records
+	 * are cut off before the header is overwritten in place: a crash in between
+	 * leaves an empty log of the previous checkpoint, which recover() moves on to
+	 * the new snapshot.
+	 */
+	private void reset(long number) throws IOException
+	{
+		this.channel.truncate(LOG_HEADER_BYTES);
+		this.channel.force(true);
+		ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_BYTES);
+		header.putLong(MAGIC).putLong(number).flip();
+		long position = 0;
+		while (header.hasRemaining())
+		{
+			position += this.channel.write(header, position);
+		}
+		this.channel.force(true);
+		this.channel.position(LOG_HEADER_BYTES);
+		this.checkpoint = number;
+	}
+
+
+	private synchronized long append(ByteBuffer payload)
+	{
+		payload.flip();
+		int length = payload.remaining();
+		if (this.pending.remaining() < RECORD_HEADER_BYTES + length)
+		{
+			try
+			{
+				// Hand the buffer to the OS without forcing it, commit() forces later
+				this.writePending();
+			}
+			catch (IOException exception)
+			{
+				throw new IllegalStateException("Cannot write the log " + this.logPath, exception);
+			}
+			if (this.pending.capacity() < RECORD_HEADER_BYTES + length)
+			{
+				this.pending = ByteBuffer.allocate(RECORD_HEADER_BYTES + length);
+			}
+		}
+		this.crc.reset();
+		this.crc.update(payload.array(), 0, length);
+		this.pending.putInt(length).putInt((int) this.crc.getValue()).put(payload);
+		return ++this.appended;
+	}
+
+
+	/**
+	 * Write the pending buffer to the channel. Caller holds the monitor of this.
+	 */
+	private void writePending() throws IOException
+	{
+		if (this.pending.position() == 0)
+		{
+			this.written = this.appended;
+			return;
+		}
+		ByteBuffer buffer = this.pending;
+		this.pending = this.spare;
+		this.spare = buffer;
+		buffer.flip();
+		while (buffer.hasRemaining())
+		{
+			this.channel.write(buffer);
+		}
+		buffer.clear();
+		if (buffer.capacity() > BUFFER_BYTES)
+		{
+			this.spare = ByteBuffer.allocate(BUFFER_BYTES);
+		}
+		this.written = this.appended;
+	}
+
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			int read = this.channel.read(buffer, position);
+			if (read < 0)
+			{
+				throw new IOException("Unexpected end of log " + this.logPath);
+			}
+			position += read;
+		}
+	}
+
+
+	/**
+	 * Apply one record to the tree
+	 *
+	 * @throws IOException
+	 *             if the record is of an unknown type or names a page that is not
+	 *             in the tree
+	 */
+	private void apply(ByteBuffer record, RBTree tree) throws IOException
+	{
+		byte type = record.get();
+		int id = record.getInt();
+		switch (type)
+		{
+			case INSERT:
+			{
+				int wordFrequency = record.getInt();
+				int daysExisted = record.getInt();
+				int numberOfLinks = record.getInt();
+				int adMoney = record.getInt();
+				int index = record.getInt();
+				int score = record.getInt();
+				byte[] link = new byte[record.getShort() & 0xFFFF];
+				record.get(link);
+				WebPage page = new WebPage(id, new String(link, StandardCharsets.UTF_8), wordFrequency, daysExisted,
+						numberOfLinks, adMoney, index);
+				page.setScore(score);
+				tree.rbInsert(page);
+				return;
+			}
+			case DELETE:
+			{
+				tree.rbDelete(this.logged(tree, record.getInt(), id));
+				return;
+			}
+			case UPDATE:
+			{
+				TreeNode node = this.logged(tree, record.getInt(), id);
+				WebPage page = node.data;
+				tree.rbDelete(node);
+				page.setFeatures(record.getInt(), record.getInt(), record.getInt(), record.getInt());
+				page.setScore(record.getInt());
+				tree.rbInsert(page);
+				return;
+			}
+			default:
+				throw new IOException("Corrupt log " + this.logPath + ": unknown record type " + type);
+		}
+	}
+
+
+	/**
+	 * Node of a page that a delete or update record refers to
+	 */
+	private TreeNode logged(RBTree tree, int score, int id) throws IOException
+	{
+		TreeNode node = tree.treeSearch(score, id);
+		if (node == null)
+		{
+			throw new IOException("Corrupt log " + this.logPath + ": no page " + id + " with score " + score);
+		}
+		return node;
+	}
+}
@@ -2,6 +2,9 @@ package view;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
@@ -10,6 +13,7 @@ import serp.PageRanker;
 import serp.WebPage;
 import serp.rbtree.RBTree;
 import serp.rbtree.TreeNode;
+import serp.store.WriteAheadLog;
 
 /**
  * GUI representation to the second part of Programming Assignment. Use Binary
@@ -26,6 +30,26 @@ public class DynamicPageRankerView
 
 
 	public DynamicPageRankerView(WebPage[] urls, String defaultKeyword, RBTree T)
+	{
+		this(urls, defaultKeyword, T, null);
+	}
+
+
+	/**
+	 * Create the view. Inserts and deletes made through the view are written to
+	 * the log before the table is redrawn, a new search replaces the snapshot.
+	 * 
+	 * @param urls
+	 *            pages shown at start
+	 * @param defaultKeyword
+	 *            keyword of the initial search
+	 * @param T
+	 *            tree with the pages of the search
+	 * @param log
+	 *            log of the changes made to the tree, null to keep them in memory
+	 *            only
+	 */
+	public DynamicPageRankerView(WebPage[] urls, String defaultKeyword, RBTree T, WriteAheadLog log)
 	{
 		this.urls = urls;
 		RBTree redBlackTree = T;
@@ -47,15 +71,40 @@ public class DynamicPageRankerView
 			public void actionPerformed(ActionEvent e)
 			{
 
-				String newKeyword = keywordField.getText();
+				// Several comma separated keywords are crawled together, the
+				// first one is shown and the others come without a new crawl.
+				// Empty keywords, as in "a,,b" or "a, ", are dropped.
+				List<String> keywords = new ArrayList<String>();
+				for (String keyword : keywordField.getText().split(","))
+				{
+					if (!keyword.trim().isEmpty())
+					{
+						keywords.add(keyword.trim());
+					}
+				}
+				if (keywords.isEmpty())
+				{
+					return;
+				}
+				String newKeyword = keywords.get(0);
+				if (keywords.size() > 1)
+				{
+					PageRanker.getLinks(keywords);
+				}
 				WebPage[] urls = PageRanker.getLinks(newKeyword);
-				redBlackTree.clear();
-				for (WebPage url : urls)
+				redBlackTree.bulkLoad(urls);
+				if (log != null)
 				{
-					RBTree.rbInsert(redBlackTree, url);
+					try
+					{
+						log.checkpoint(redBlackTree);
+					}
+					catch (IOException exception)
+					{
+						System.out.println(exception.getMessage());
+					}
 				}
-				WebPage[] sortedPages = redBlackTree.inOrderTreeWalk();
-				sortedPages = PageRanker.reverse(sortedPages);
+				WebPage[] sortedPages = redBlackTree.topK(PageRanker.RESULTS_PER_PAGE);
 				// Rerdraw the table
 				String[][] urlData = WebPage.prepareTableValues(sortedPages);
 				DefaultTableModel model = new DefaultTableModel(urlData, columnNames);
@@ -118,7 +167,7 @@ public class DynamicPageRankerView
 				}
 				WebPage page = redBlackTree.getDataByRank(rank);
 				// Write information about page to foundUrlField
-				foundUrlField.setText(page.toString());
+				foundUrlField.setText(page == null ? "No pages" : page.toString());
 			}
 		});
 
@@ -152,21 +201,32 @@ public class DynamicPageRankerView
 					System.out.println(exception.getMessage());
 				}
 
-				// Find Node with specified score
+				// Find the first Node with specified score, the oldest page wins ties
 				TreeNode nodeToDelete = redBlackTree.treeSearch(score);
 
 				// Delete node if found one
 				if (nodeToDelete != null)
 				{
-					RBTree.rbDelete(redBlackTree, nodeToDelete);
+					redBlackTree.rbDelete(nodeToDelete);
+					if (log != null)
+					{
+						try
+						{
+							log.logDelete(nodeToDelete.data);
+							log.commit();
+						}
+						catch (IOException exception)
+						{
+							System.out.println(exception.getMessage());
+						}
+					}
 					System.out.println("=== After deletion");
 					PageRanker.validateTree(redBlackTree);
 					PageRanker.checkDepth(redBlackTree.root, 1, 1);
 				}
 
-				// Get sorted pages and reverse the order
-				WebPage[] sortedPages = redBlackTree.inOrderTreeWalk();
-				sortedPages = PageRanker.reverse(sortedPages);
+				// Get top sorted pages
+				WebPage[] sortedPages = redBlackTree.topK(PageRanker.RESULTS_PER_PAGE);
 				// Rerdraw the table
 				String[][] urlData = WebPage.prepareTableValues(sortedPages);
 				DefaultTableModel model = new DefaultTableModel(urlData, columnNames);
@@ -239,16 +299,27 @@ public class DynamicPageRankerView
 					System.out.println(exception.getMessage());
 				}
 				WebPage page = new WebPage(url, frequency, numberOfDays, numberOfLinks, adMoney, -1);
-				RBTree.rbInsert(redBlackTree, page);
+				redBlackTree.rbInsert(page);
+				if (log != null)
+				{
+					try
+					{
+						log.logInsert(page);
+						log.commit();
+					}
+					catch (IOException exception)
+					{
+						System.out.println(exception.getMessage());
+					}
+				}
 				
 				// Check RBTree structure
 				System.out.println("=== After insertion");
 				PageRanker.validateTree(redBlackTree);
 				PageRanker.checkDepth(redBlackTree.root, 1, 1);
 				
-				// Get sorted pages and reverse the order
-				WebPage[] sortedPages = redBlackTree.inOrderTreeWalk();
-				sortedPages = PageRanker.reverse(sortedPages);
+				// Get top sorted pages
+				WebPage[] sortedPages = redBlackTree.topK(PageRanker.RESULTS_PER_PAGE);
 				// Rerdraw the table
 				String[][] urlData = WebPage.prepareTableValues(sortedPages);
 				DefaultTableModel model = new DefaultTableModel(urlData, columnNames);